@@ -115,6 +115,9 @@ public class BlockedMessagesFragment extends MainFragment implements LoaderManag
         case R.id.menu_item_clear_blocked:
             showConfirmClearDialog();
             return true;
+        case R.id.menu_item_decision_trace:
+            startActivity(new Intent(getContext(), DecisionTraceActivity.class));
+            return true;
         default:
             return super.onOptionsItemSelected(item);
         }
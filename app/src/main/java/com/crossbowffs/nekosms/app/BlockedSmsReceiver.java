@@ -13,8 +13,17 @@ import com.crossbowffs.nekosms.loader.DatabaseException;
 import com.crossbowffs.nekosms.loader.InboxSmsLoader;
 import com.crossbowffs.nekosms.utils.Xlog;
 
+import java.util.ArrayList;
+
 public class BlockedSmsReceiver extends BroadcastReceiver {
     private void onReceiveSms(Context context, Intent intent) {
+        // A burst of messages is sent as a single broadcast
+        ArrayList<Uri> messageUris = intent.getParcelableArrayListExtra(BroadcastConsts.EXTRA_MESSAGES);
+        if (messageUris != null) {
+            NotificationHelper.displayNotifications(context, messageUris);
+            return;
+        }
+
         Uri messageUri = intent.getParcelableExtra(BroadcastConsts.EXTRA_MESSAGE);
         if (messageUri == null) {
             return;
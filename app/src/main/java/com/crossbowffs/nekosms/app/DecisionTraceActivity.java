@@ -0,0 +1,165 @@
+package com.crossbowffs.nekosms.app;
+
+import android.database.ContentObserver;
+import android.os.Bundle;
+import android.os.Handler;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import com.crossbowffs.nekosms.R;
+import com.crossbowffs.nekosms.data.SmsDecisionData;
+import com.crossbowffs.nekosms.loader.DecisionTraceLoader;
+import com.crossbowffs.nekosms.provider.DatabaseContract;
+import com.crossbowffs.nekosms.utils.Xlog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class DecisionTraceActivity extends AppCompatActivity {
+    private class DecisionTraceAdapter extends BaseAdapter {
+        private List<SmsDecisionData> mDecisions = Collections.emptyList();
+
+        public void setDecisions(List<SmsDecisionData> decisions) {
+            mDecisions = decisions;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return mDecisions.size();
+        }
+
+        @Override
+        public SmsDecisionData getItem(int position) {
+            return mDecisions.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView == null) {
+                convertView = LayoutInflater.from(parent.getContext())
+                    .inflate(android.R.layout.simple_list_item_2, parent, false);
+            }
+            SmsDecisionData decision = getItem(position);
+            TextView titleTextView = (TextView)convertView.findViewById(android.R.id.text1);
+            TextView detailsTextView = (TextView)convertView.findViewById(android.R.id.text2);
+            titleTextView.setText(getString(R.string.format_decision_title,
+                getString(decision.getReason().isBlocked() ? R.string.decision_blocked : R.string.decision_allowed),
+                getReasonString(decision)));
+            detailsTextView.setText(getString(R.string.format_decision_details,
+                DateUtils.formatDateTime(DecisionTraceActivity.this, decision.getTime(),
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME),
+                decision.getSenderHash(),
+                decision.getSubId(),
+                decision.getMatchTimeNanos() / 1000000.0));
+            return convertView;
+        }
+    }
+
+    private DecisionTraceAdapter mAdapter;
+    private ContentObserver mContentObserver;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_decision_trace);
+        Toolbar toolbar = (Toolbar)findViewById(R.id.toolbar);
+        ListView listView = (ListView)findViewById(R.id.decision_trace_listview);
+        mAdapter = new DecisionTraceAdapter();
+        listView.setAdapter(mAdapter);
+        listView.setEmptyView(findViewById(android.R.id.empty));
+
+        toolbar.setTitle(R.string.decision_trace);
+        setSupportActionBar(toolbar);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        mContentObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                loadDecisions();
+            }
+        };
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // The trace is kept by the module, which sends it to our
+        // provider when asked; we get notified once it has arrived.
+        getContentResolver().registerContentObserver(DatabaseContract.DecisionTrace.CONTENT_URI, false, mContentObserver);
+        loadDecisions();
+        DecisionTraceLoader.requestTrace(this);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        getContentResolver().unregisterContentObserver(mContentObserver);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case android.R.id.home:
+            finish();
+            return true;
+        default:
+            return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void loadDecisions() {
+        List<SmsDecisionData> decisions;
+        try {
+            decisions = DecisionTraceLoader.queryTrace(this);
+        } catch (Exception e) {
+            Xlog.e("Failed to load decision trace", e);
+            decisions = null;
+        }
+
+        if (decisions == null) {
+            mAdapter.setDecisions(Collections.<SmsDecisionData>emptyList());
+            return;
+        }
+
+        // Most recent decisions first
+        ArrayList<SmsDecisionData> reversed = new ArrayList<>(decisions);
+        Collections.reverse(reversed);
+        mAdapter.setDecisions(reversed);
+    }
+
+    private String getReasonString(SmsDecisionData decision) {
+        switch (decision.getReason()) {
+        case FILTERS_FAILED:
+            return getString(R.string.decision_reason_filters_failed);
+        case CONTACT:
+            return getString(R.string.decision_reason_contact);
+        case NUMBER_LIST_WHITELIST:
+            return getString(R.string.decision_reason_number_list_whitelist, decision.getId());
+        case WHITELIST_RULE:
+            return getString(R.string.decision_reason_whitelist_rule, decision.getId());
+        case BLACKLIST_RULE:
+            return getString(R.string.decision_reason_blacklist_rule, decision.getId());
+        case NUMBER_LIST_BLACKLIST:
+            return getString(R.string.decision_reason_number_list_blacklist, decision.getId());
+        case NO_MATCH:
+            return getString(R.string.decision_reason_no_match);
+        default:
+            throw new AssertionError("Invalid decision reason: " + decision.getReason());
+        }
+    }
+}
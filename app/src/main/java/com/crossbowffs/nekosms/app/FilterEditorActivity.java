@@ -16,6 +16,7 @@ import android.view.MenuItem;
 import android.widget.Toast;
 import com.crossbowffs.nekosms.R;
 import com.crossbowffs.nekosms.data.*;
+import com.crossbowffs.nekosms.filters.PhoneNumberKey;
 import com.crossbowffs.nekosms.loader.FilterRuleLoader;
 import com.crossbowffs.nekosms.widget.FragmentPagerAdapter;
 
@@ -157,6 +158,12 @@ public class FilterEditorActivity extends AppCompatActivity {
     }
 
     private String validatePatternString(SmsFilterPatternData patternData, int fieldNameId) {
+        if (patternData.getMode() == SmsFilterMode.NUMBER) {
+            if (PhoneNumberKey.parse(patternData.getPattern()) == null) {
+                return getString(R.string.format_invalid_number_message, getString(fieldNameId));
+            }
+            return null;
+        }
         if (patternData.getMode() != SmsFilterMode.REGEX) {
             return null;
         }
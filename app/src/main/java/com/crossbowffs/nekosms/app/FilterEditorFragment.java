@@ -21,6 +21,8 @@ import com.crossbowffs.nekosms.widget.EnumAdapter;
 import com.crossbowffs.nekosms.widget.OnItemSelectedListenerAdapter;
 import com.crossbowffs.nekosms.widget.TextWatcherAdapter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -73,8 +75,11 @@ public class FilterEditorFragment extends Fragment {
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
+        // Load pattern data corresponding to the current tab
+        mPatternData = getEditorActivity().getPatternData(mField);
+
         // Set up spinner adapters
-        mModeAdapter = new EnumAdapter<>(getEditorActivity(), android.R.layout.simple_spinner_dropdown_item, SmsFilterMode.class);
+        mModeAdapter = new EnumAdapter<>(getEditorActivity(), android.R.layout.simple_spinner_dropdown_item, getModes());
         mModeAdapter.setStringMap(getModeMap());
         mModeSpinner.setAdapter(mModeAdapter);
 
@@ -82,9 +87,6 @@ public class FilterEditorFragment extends Fragment {
         mCaseAdapter.setStringMap(getCaseMap());
         mCaseSpinner.setAdapter(mCaseAdapter);
 
-        // Load pattern data corresponding to the current tab
-        mPatternData = getEditorActivity().getPatternData(mField);
-
         // Disable hint animation as workaround for drawing issue during activity creation
         // See https://code.google.com/p/android/issues/detail?id=179776
         mPatternTextInputLayout.setHintAnimationEnabled(false);
@@ -114,15 +116,27 @@ public class FilterEditorFragment extends Fragment {
         });
     }
 
+    private SmsFilterMode[] getModes() {
+        // Phone number matching only makes sense for the sender,
+        // but keep it if an existing body pattern already uses it
+        if (mField == SmsFilterField.SENDER || mPatternData.getMode() == SmsFilterMode.NUMBER) {
+            return SmsFilterMode.values();
+        }
+        ArrayList<SmsFilterMode> modes = new ArrayList<>(Arrays.asList(SmsFilterMode.values()));
+        modes.remove(SmsFilterMode.NUMBER);
+        return modes.toArray(new SmsFilterMode[modes.size()]);
+    }
+
     private Map<SmsFilterMode, String> getModeMap() {
         Resources resources = getResources();
-        HashMap<SmsFilterMode, String> modeMap = MapUtils.hashMapForSize(6);
+        HashMap<SmsFilterMode, String> modeMap = MapUtils.hashMapForSize(7);
         modeMap.put(SmsFilterMode.REGEX, resources.getString(R.string.filter_mode_regex));
         modeMap.put(SmsFilterMode.WILDCARD, resources.getString(R.string.filter_mode_wildcard));
         modeMap.put(SmsFilterMode.CONTAINS, resources.getString(R.string.filter_mode_contains));
         modeMap.put(SmsFilterMode.PREFIX, resources.getString(R.string.filter_mode_prefix));
         modeMap.put(SmsFilterMode.SUFFIX, resources.getString(R.string.filter_mode_suffix));
         modeMap.put(SmsFilterMode.EQUALS, resources.getString(R.string.filter_mode_equals));
+        modeMap.put(SmsFilterMode.NUMBER, resources.getString(R.string.filter_mode_number));
         return modeMap;
     }
 
@@ -1,6 +1,7 @@
 package com.crossbowffs.nekosms.app;
 
 import android.database.Cursor;
+import android.text.format.DateUtils;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -11,12 +12,16 @@ import com.crossbowffs.nekosms.data.*;
 import com.crossbowffs.nekosms.loader.FilterRuleLoader;
 import com.crossbowffs.nekosms.widget.RecyclerCursorAdapter;
 
+import java.util.Collections;
+import java.util.Map;
+
 /* package */ class FilterRulesAdapter extends RecyclerCursorAdapter<FilterRulesAdapter.UserFiltersItemHolder> {
     public static class UserFiltersItemHolder extends RecyclerView.ViewHolder {
         public final TextView mSenderInfoTextView;
         public final TextView mSenderPatternTextView;
         public final TextView mBodyInfoTextView;
         public final TextView mBodyPatternTextView;
+        public final TextView mStatsTextView;
         public SmsFilterData mFilterData;
 
         public UserFiltersItemHolder(View itemView) {
@@ -25,15 +30,25 @@ import com.crossbowffs.nekosms.widget.RecyclerCursorAdapter;
             mSenderPatternTextView = (TextView)itemView.findViewById(R.id.filter_rule_sender_pattern_textview);
             mBodyInfoTextView = (TextView)itemView.findViewById(R.id.filter_rule_body_info_textview);
             mBodyPatternTextView = (TextView)itemView.findViewById(R.id.filter_rule_body_pattern_textview);
+            mStatsTextView = (TextView)itemView.findViewById(R.id.filter_rule_stats_textview);
         }
     }
 
     private final FilterRulesFragment mFragment;
+    private Map<Long, SmsFilterStatsData> mStats = Collections.emptyMap();
 
     public FilterRulesAdapter(FilterRulesFragment fragment) {
         mFragment = fragment;
     }
 
+    public void changeStats(Map<Long, SmsFilterStatsData> stats) {
+        if (stats == null) {
+            stats = Collections.emptyMap();
+        }
+        mStats = stats;
+        notifyDataSetChanged();
+    }
+
     @Override
     public UserFiltersItemHolder onCreateViewHolder(ViewGroup group, int i) {
         LayoutInflater layoutInflater = LayoutInflater.from(mFragment.getContext());
@@ -55,6 +70,7 @@ import com.crossbowffs.nekosms.widget.RecyclerCursorAdapter;
         SmsFilterPatternData bodyPattern = filterData.getBodyPattern();
         bindTextViews(senderPattern, holder.mSenderInfoTextView, holder.mSenderPatternTextView);
         bindTextViews(bodyPattern, holder.mBodyInfoTextView, holder.mBodyPatternTextView);
+        bindStatsTextView(mStats.get(id), holder.mStatsTextView);
         holder.itemView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -77,6 +93,26 @@ import com.crossbowffs.nekosms.widget.RecyclerCursorAdapter;
         }
     }
 
+    private void bindStatsTextView(SmsFilterStatsData stats, TextView statsView) {
+        if (stats == null) {
+            statsView.setText("");
+            statsView.setVisibility(View.GONE);
+            return;
+        }
+
+        double matchTimeMillis = stats.getMatchTimeNanos() / 1000000.0;
+        if (stats.getHitCount() > 0) {
+            CharSequence lastHitString = DateUtils.getRelativeTimeSpanString(
+                mFragment.getContext(), stats.getLastHitTime());
+            statsView.setText(mFragment.getString(R.string.format_filter_stats,
+                stats.getHitCount(), lastHitString, matchTimeMillis));
+        } else {
+            statsView.setText(mFragment.getString(R.string.format_filter_stats_never_matched,
+                matchTimeMillis));
+        }
+        statsView.setVisibility(View.VISIBLE);
+    }
+
     private String buildFilterInfoString(int lineId, SmsFilterPatternData patternData) {
         String fieldString = mFragment.getString(getFilterFieldStringId(patternData.getField()));
         String modeString = mFragment.getString(getFilterModeStringId(patternData.getMode()));
@@ -112,6 +148,8 @@ import com.crossbowffs.nekosms.widget.RecyclerCursorAdapter;
             return R.string.filter_info_mode_suffix;
         case EQUALS:
             return R.string.filter_info_mode_equals;
+        case NUMBER:
+            return R.string.filter_info_mode_number;
         default:
             return 0;
         }
@@ -10,6 +10,7 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.provider.OpenableColumns;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -27,15 +28,27 @@ import com.crossbowffs.nekosms.backup.ExportResult;
 import com.crossbowffs.nekosms.backup.ImportResult;
 import com.crossbowffs.nekosms.data.SmsFilterAction;
 import com.crossbowffs.nekosms.data.SmsFilterData;
+import com.crossbowffs.nekosms.data.SmsFilterStatsData;
+import com.crossbowffs.nekosms.data.SmsNumberListData;
 import com.crossbowffs.nekosms.loader.FilterRuleLoader;
+import com.crossbowffs.nekosms.loader.FilterStatsLoader;
+import com.crossbowffs.nekosms.loader.NumberListLoader;
 import com.crossbowffs.nekosms.provider.DatabaseContract;
 import com.crossbowffs.nekosms.utils.Xlog;
+import com.crossbowffs.nekosms.widget.CursorWrapper;
 import com.crossbowffs.nekosms.widget.DialogAsyncTask;
 import com.crossbowffs.nekosms.widget.ListRecyclerView;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
 public class FilterRulesFragment extends MainFragment implements LoaderManager.LoaderCallbacks<Cursor> {
     private static final int IMPORT_BACKUP_REQUEST = 1853;
     private static final int EXPORT_BACKUP_REQUEST = 1854;
+    private static final int IMPORT_NUMBER_LIST_REQUEST = 1855;
+    private static final int FILTER_RULES_LOADER = 0;
+    private static final int FILTER_STATS_LOADER = 1;
     public static final String EXTRA_ACTION = "action";
     public static final String ARG_IMPORT_URI = "import_uri";
 
@@ -67,7 +80,8 @@ public class FilterRulesFragment extends MainFragment implements LoaderManager.L
         FilterRulesAdapter adapter = new FilterRulesAdapter(this);
         mAdapter = adapter;
         LoaderManager loaderManager = getLoaderManager();
-        loaderManager.initLoader(0, null, this);
+        loaderManager.initLoader(FILTER_RULES_LOADER, null, this);
+        loaderManager.initLoader(FILTER_STATS_LOADER, null, this);
         mRecyclerView.setAdapter(adapter);
         mRecyclerView.setEmptyView(mEmptyView);
         mRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
@@ -149,24 +163,70 @@ public class FilterRulesFragment extends MainFragment implements LoaderManager.L
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        return new CursorLoader(
-            getContext(),
-            DatabaseContract.FilterRules.CONTENT_URI,
-            DatabaseContract.FilterRules.ALL,
-            DatabaseContract.FilterRules.ACTION + "=?",
-            new String[] {mAction.name()},
-            null
-        );
+        switch (id) {
+        case FILTER_RULES_LOADER:
+            return new CursorLoader(
+                getContext(),
+                DatabaseContract.FilterRules.CONTENT_URI,
+                DatabaseContract.FilterRules.ALL,
+                DatabaseContract.FilterRules.ACTION + "=?",
+                new String[] {mAction.name()},
+                null
+            );
+        case FILTER_STATS_LOADER:
+            return new CursorLoader(
+                getContext(),
+                DatabaseContract.FilterStats.CONTENT_URI,
+                DatabaseContract.FilterStats.ALL,
+                null,
+                null,
+                null
+            );
+        default:
+            throw new AssertionError("Unknown loader ID: " + id);
+        }
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mAdapter.changeCursor(data);
+        switch (loader.getId()) {
+        case FILTER_RULES_LOADER:
+            mAdapter.changeCursor(data);
+            break;
+        case FILTER_STATS_LOADER:
+            mAdapter.changeStats(readFilterStats(data));
+            break;
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mAdapter.changeCursor(null);
+        switch (loader.getId()) {
+        case FILTER_RULES_LOADER:
+            mAdapter.changeCursor(null);
+            break;
+        case FILTER_STATS_LOADER:
+            mAdapter.changeStats(null);
+            break;
+        }
+    }
+
+    private static HashMap<Long, SmsFilterStatsData> readFilterStats(Cursor cursor) {
+        // The cursor is owned by the loader, so don't close it here.
+        // The stats table only has one row per rule that has been
+        // evaluated, so it's cheap to read it all into memory.
+        HashMap<Long, SmsFilterStatsData> stats = new HashMap<>();
+        if (cursor == null) {
+            return stats;
+        }
+        FilterStatsLoader loader = FilterStatsLoader.get();
+        int[] columns = loader.getColumns(cursor);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            SmsFilterStatsData data = loader.getData(cursor, columns, null);
+            stats.put(data.getId(), data);
+        }
+        return stats;
     }
 
     @Override
@@ -179,11 +239,18 @@ public class FilterRulesFragment extends MainFragment implements LoaderManager.L
             showConfirmImportDialog(data.getData());
         } else if (requestCode == EXPORT_BACKUP_REQUEST) {
             exportFilterRules(data.getData());
+        } else if (requestCode == IMPORT_NUMBER_LIST_REQUEST) {
+            importNumberList(data.getData());
         }
     }
 
     private void showImportExportDialog() {
-        CharSequence[] items = {getString(R.string.import_from_storage), getString(R.string.export_to_storage)};
+        CharSequence[] items = {
+            getString(R.string.import_from_storage),
+            getString(R.string.export_to_storage),
+            getString(R.string.import_number_list),
+            getString(R.string.manage_number_lists),
+        };
         new AlertDialog.Builder(getContext())
             .setTitle(R.string.import_export)
             .setItems(items, new DialogInterface.OnClickListener() {
@@ -193,6 +260,10 @@ public class FilterRulesFragment extends MainFragment implements LoaderManager.L
                         startActivityForResult(BackupLoader.getImportFilePickerIntent(), IMPORT_BACKUP_REQUEST);
                     } else if (which == 1) {
                         startActivityForResult(BackupLoader.getExportFilePickerIntent(), EXPORT_BACKUP_REQUEST);
+                    } else if (which == 2) {
+                        startActivityForResult(BackupLoader.getImportFilePickerIntent(), IMPORT_NUMBER_LIST_REQUEST);
+                    } else if (which == 3) {
+                        showNumberListsDialog();
                     }
                 }
             })
@@ -272,6 +343,91 @@ public class FilterRulesFragment extends MainFragment implements LoaderManager.L
         }.execute();
     }
 
+    private void importNumberList(final Uri uri) {
+        new DialogAsyncTask<Void, Void, SmsNumberListData>(getContext(), R.string.progress_importing) {
+            @Override
+            protected SmsNumberListData doInBackground(Void... params) {
+                try {
+                    return NumberListLoader.get().importList(getContext(), uri, mAction, getDisplayName(uri));
+                } catch (IOException e) {
+                    Xlog.e("Failed to import number list", e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(SmsNumberListData result) {
+                super.onPostExecute(result);
+                if (result != null) {
+                    showSnackbar(R.string.number_list_import_success);
+                } else {
+                    showSnackbar(R.string.number_list_import_failed);
+                }
+            }
+        }.execute();
+    }
+
+    private String getDisplayName(Uri uri) {
+        // The list is named after the file it was imported from
+        try (Cursor cursor = getContext().getContentResolver().query(uri, new String[] {OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getString(0);
+            }
+        } catch (Exception e) {
+            Xlog.w("Failed to query file name", e);
+        }
+        return uri.getLastPathSegment();
+    }
+
+    private void showNumberListsDialog() {
+        final ArrayList<SmsNumberListData> numberLists = new ArrayList<>();
+        try (CursorWrapper<SmsNumberListData> cursor = NumberListLoader.get().queryAll(getContext(), mAction)) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    numberLists.add(cursor.get());
+                }
+            }
+        }
+
+        if (numberLists.isEmpty()) {
+            showSnackbar(R.string.number_lists_empty);
+            return;
+        }
+
+        CharSequence[] items = new CharSequence[numberLists.size()];
+        for (int i = 0; i < items.length; ++i) {
+            SmsNumberListData numberList = numberLists.get(i);
+            items[i] = getString(R.string.format_number_list_info, numberList.getName(), numberList.getNumberCount());
+        }
+
+        new AlertDialog.Builder(getContext())
+            .setTitle(R.string.manage_number_lists)
+            .setItems(items, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    showConfirmDeleteNumberListDialog(numberLists.get(which));
+                }
+            })
+            .setNegativeButton(R.string.cancel, null)
+            .show();
+    }
+
+    private void showConfirmDeleteNumberListDialog(final SmsNumberListData numberList) {
+        new AlertDialog.Builder(getContext())
+            .setIcon(R.drawable.ic_warning_white_24dp)
+            .setTitle(R.string.delete_number_list_title)
+            .setMessage(numberList.getName())
+            .setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    NumberListLoader.get().delete(getContext(), numberList.getId());
+                    showSnackbar(R.string.number_list_deleted);
+                }
+            })
+            .setNegativeButton(R.string.cancel, null)
+            .show();
+    }
+
     private void deleteFilter(long filterId) {
         final SmsFilterData filterData = FilterRuleLoader.get().queryAndDelete(getContext(), filterId);
         if (filterData == null) {
@@ -19,11 +19,20 @@ import com.crossbowffs.nekosms.consts.BroadcastConsts;
 import com.crossbowffs.nekosms.consts.PreferenceConsts;
 import com.crossbowffs.nekosms.data.SmsMessageData;
 import com.crossbowffs.nekosms.loader.BlockedSmsLoader;
+import com.crossbowffs.nekosms.widget.CursorWrapper;
+
+import java.util.List;
 
 public final class NotificationHelper {
     private static final String NOTIFICATION_GROUP = "blocked_message";
     private static final String NOTIFICATION_CHANNEL = "blocked_message";
 
+    // Message IDs start at 1, so this can't clash with a message
+    private static final int NOTIFICATION_SUMMARY_ID = 0;
+
+    // How many messages to list in the summary notification
+    private static final int NOTIFICATION_SUMMARY_LINES = 5;
+
     private NotificationHelper() { }
 
     private static int uriToNotificationId(Uri uri) {
@@ -66,7 +75,7 @@ public final class NotificationHelper {
         return PendingIntent.getBroadcast(context, 0, intent, 0);
     }
 
-    private static Notification buildNotificationSingle(Context context, SmsMessageData messageData) {
+    private static Notification buildNotificationSingle(Context context, SmsMessageData messageData, boolean alertSummary) {
         Uri uri = messageData.getUri();
 
         Intent viewIntent = new Intent(context, MainActivity.class);
@@ -92,6 +101,45 @@ public final class NotificationHelper {
             .setAutoCancel(true)
             .setColor(ContextCompat.getColor(context, R.color.main))
             .setGroup(NOTIFICATION_GROUP)
+            .setGroupAlertBehavior(alertSummary ? NotificationCompat.GROUP_ALERT_SUMMARY : NotificationCompat.GROUP_ALERT_ALL)
+            .build();
+    }
+
+    private static Notification buildNotificationSummary(Context context) {
+        // Lists the messages that haven't been seen yet, which are
+        // the ones that still have a notification, newest first.
+        int count = 0;
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        try (CursorWrapper<SmsMessageData> cursor = BlockedSmsLoader.get().queryUnseen(context)) {
+            if (cursor != null) {
+                count = cursor.getCount();
+                SmsMessageData messageData = new SmsMessageData();
+                for (int i = 0; i < NOTIFICATION_SUMMARY_LINES && cursor.moveToNext(); ++i) {
+                    messageData = cursor.get(messageData);
+                    style.addLine(context.getString(R.string.format_notification_message_line,
+                        messageData.getSender(), messageData.getBody()));
+                }
+            }
+        }
+
+        Intent viewIntent = new Intent(context, MainActivity.class);
+        viewIntent.putExtra(MainActivity.EXTRA_SECTION, MainActivity.EXTRA_SECTION_BLOCKED_MESSAGES);
+        PendingIntent viewPendingIntent = PendingIntent.getActivity(context, 0, viewIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        String title = context.getString(R.string.format_notification_multiple_messages, count);
+        return new NotificationCompat.Builder(context, NOTIFICATION_CHANNEL)
+            .setSmallIcon(R.drawable.ic_message_blocked_white_24dp)
+            .setContentTitle(title)
+            .setStyle(style.setBigContentTitle(title))
+            .setNumber(count)
+            .setContentIntent(viewPendingIntent)
+            .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+            .setVisibility(NotificationCompat.VISIBILITY_PRIVATE)
+            .setAutoCancel(true)
+            .setColor(ContextCompat.getColor(context, R.color.main))
+            .setGroup(NOTIFICATION_GROUP)
+            .setGroupSummary(true)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY)
             .build();
     }
 
@@ -116,13 +164,44 @@ public final class NotificationHelper {
         }
 
         SmsMessageData messageData = BlockedSmsLoader.get().query(context, messageUri);
-        Notification notification = buildNotificationSingle(context, messageData);
+        Notification notification = buildNotificationSingle(context, messageData, false);
         applyNotificationStyle(context, notification);
 
         NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
         notificationManager.notify(uriToNotificationId(messageUri), notification);
     }
 
+    public static void displayNotifications(Context context, List<Uri> messageUris) {
+        if (messageUris.size() == 1) {
+            displayNotification(context, messageUris.get(0));
+            return;
+        }
+
+        if (!areNotificationsEnabled(context)) {
+            for (Uri messageUri : messageUris) {
+                BlockedSmsLoader.get().setSeenStatus(context, messageUri, true);
+            }
+            return;
+        }
+
+        // Each message still gets its own notification so it can be
+        // deleted or restored, but they are grouped under a summary,
+        // which is the only one that makes a sound for the burst.
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+        for (Uri messageUri : messageUris) {
+            SmsMessageData messageData = BlockedSmsLoader.get().query(context, messageUri);
+            if (messageData == null) {
+                continue;
+            }
+            Notification notification = buildNotificationSingle(context, messageData, true);
+            notificationManager.notify(uriToNotificationId(messageUri), notification);
+        }
+
+        Notification summary = buildNotificationSummary(context);
+        applyNotificationStyle(context, summary);
+        notificationManager.notify(NOTIFICATION_SUMMARY_ID, summary);
+    }
+
     public static void createNotificationChannel(Context context) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
             return;
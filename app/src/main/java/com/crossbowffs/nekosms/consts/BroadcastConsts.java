@@ -9,7 +9,10 @@ public final class BroadcastConsts {
     public static final String ACTION_DELETE_SMS = NEKOSMS_PACKAGE + ".action.DELETE_BLOCKED_SMS";
     public static final String ACTION_RESTORE_SMS = NEKOSMS_PACKAGE + ".action.RESTORE_BLOCKED_SMS";
     public static final String ACTION_DISMISS_NOTIFICATION = NEKOSMS_PACKAGE + ".action.DISMISS_NOTIFICATION";
+    public static final String ACTION_DUMP_DECISION_TRACE = NEKOSMS_PACKAGE + ".action.DUMP_DECISION_TRACE";
+    public static final String PERMISSION_DUMP_DECISION_TRACE = NEKOSMS_PACKAGE + ".permission.DUMP_DECISION_TRACE";
     public static final String EXTRA_MESSAGE = "message";
+    public static final String EXTRA_MESSAGES = "messages";
 
     private BroadcastConsts() { }
 }
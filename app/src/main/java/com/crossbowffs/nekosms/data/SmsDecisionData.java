@@ -0,0 +1,80 @@
+package com.crossbowffs.nekosms.data;
+
+public class SmsDecisionData {
+    private long mTime;
+    private SmsDecisionReason mReason;
+    private long mId = -1;
+    private long mMatchTimeNanos;
+    private int mSenderHash;
+    private int mSubId;
+
+    public SmsDecisionData setTime(long time) {
+        mTime = time;
+        return this;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    public SmsDecisionData setReason(SmsDecisionReason reason) {
+        mReason = reason;
+        return this;
+    }
+
+    public SmsDecisionReason getReason() {
+        return mReason;
+    }
+
+    public SmsDecisionData setId(long id) {
+        mId = id;
+        return this;
+    }
+
+    /**
+     * Returns the ID of the rule or number list that made the
+     * decision, or -1 if the decision was not made by either.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    public SmsDecisionData setMatchTimeNanos(long matchTimeNanos) {
+        mMatchTimeNanos = matchTimeNanos;
+        return this;
+    }
+
+    public long getMatchTimeNanos() {
+        return mMatchTimeNanos;
+    }
+
+    public SmsDecisionData setSenderHash(int senderHash) {
+        mSenderHash = senderHash;
+        return this;
+    }
+
+    public int getSenderHash() {
+        return mSenderHash;
+    }
+
+    public SmsDecisionData setSubId(int subId) {
+        mSubId = subId;
+        return this;
+    }
+
+    public int getSubId() {
+        return mSubId;
+    }
+
+    @Override
+    public String toString() {
+        return "SmsDecisionData{" +
+            "time=" + mTime +
+            ", reason=" + mReason +
+            ", id=" + mId +
+            ", matchTimeNanos=" + mMatchTimeNanos +
+            ", senderHash=" + mSenderHash +
+            ", subId=" + mSubId +
+            "}";
+    }
+}
@@ -0,0 +1,21 @@
+package com.crossbowffs.nekosms.data;
+
+public enum SmsDecisionReason {
+    FILTERS_FAILED(false),
+    CONTACT(false),
+    NUMBER_LIST_WHITELIST(false),
+    WHITELIST_RULE(false),
+    BLACKLIST_RULE(true),
+    NUMBER_LIST_BLACKLIST(true),
+    NO_MATCH(false);
+
+    private final boolean mBlocked;
+
+    SmsDecisionReason(boolean blocked) {
+        mBlocked = blocked;
+    }
+
+    public boolean isBlocked() {
+        return mBlocked;
+    }
+}
@@ -1,9 +1,5 @@
 package com.crossbowffs.nekosms.data;
 
-import android.content.ContentUris;
-import android.net.Uri;
-import com.crossbowffs.nekosms.provider.DatabaseContract;
-
 public class SmsFilterData {
     private long mId = -1;
     private SmsFilterAction mAction;
@@ -54,14 +50,6 @@ public class SmsFilterData {
         }
     }
 
-    public Uri getUri() {
-        long id = getId();
-        if (id < 0) {
-            return null;
-        }
-        return ContentUris.withAppendedId(DatabaseContract.FilterRules.CONTENT_URI, id);
-    }
-
     @Override
     public String toString() {
         return "SmsFilterData{" +
@@ -6,7 +6,8 @@ public enum SmsFilterMode {
     CONTAINS,
     PREFIX,
     SUFFIX,
-    EQUALS;
+    EQUALS,
+    NUMBER;
 
     public static SmsFilterMode parse(String modeString) {
         if (modeString == null) {
@@ -1,6 +1,5 @@
 package com.crossbowffs.nekosms.data;
 
-import android.text.TextUtils;
 import com.crossbowffs.nekosms.utils.StringUtils;
 
 public class SmsFilterPatternData {
@@ -14,7 +13,9 @@ public class SmsFilterPatternData {
     }
 
     public boolean hasData() {
-        return !TextUtils.isEmpty(mPattern);
+        // Avoid TextUtils here so this class (and the filter engine
+        // built on it) can also be used outside of Android
+        return mPattern != null && mPattern.length() > 0;
     }
 
     public void reset() {
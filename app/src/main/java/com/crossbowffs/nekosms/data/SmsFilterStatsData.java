@@ -0,0 +1,61 @@
+package com.crossbowffs.nekosms.data;
+
+public class SmsFilterStatsData {
+    private long mId = -1;
+    private long mHitCount;
+    private long mLastHitTime;
+    private long mMatchTimeNanos;
+
+    public void reset() {
+        mId = -1;
+        mHitCount = 0;
+        mLastHitTime = 0;
+        mMatchTimeNanos = 0;
+    }
+
+    public SmsFilterStatsData setId(long id) {
+        mId = id;
+        return this;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public SmsFilterStatsData setHitCount(long hitCount) {
+        mHitCount = hitCount;
+        return this;
+    }
+
+    public long getHitCount() {
+        return mHitCount;
+    }
+
+    public SmsFilterStatsData setLastHitTime(long lastHitTime) {
+        mLastHitTime = lastHitTime;
+        return this;
+    }
+
+    public long getLastHitTime() {
+        return mLastHitTime;
+    }
+
+    public SmsFilterStatsData setMatchTimeNanos(long matchTimeNanos) {
+        mMatchTimeNanos = matchTimeNanos;
+        return this;
+    }
+
+    public long getMatchTimeNanos() {
+        return mMatchTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SmsFilterStatsData{" +
+            "id=" + mId +
+            ", hitCount=" + mHitCount +
+            ", lastHitTime=" + mLastHitTime +
+            ", matchTimeNanos=" + mMatchTimeNanos +
+            "}";
+    }
+}
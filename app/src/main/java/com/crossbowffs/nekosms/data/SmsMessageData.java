@@ -21,15 +21,24 @@ public class SmsMessageData {
 
     public static SmsMessageData fromIntent(Intent intent) {
         SmsMessage[] messageParts = SmsMessageUtils.fromIntent(intent);
+        SmsMessageData message = fromMessageParts(messageParts);
+        message.setBody(readBody(messageParts));
+        return message;
+    }
+
+    /**
+     * Reads everything except the body from the message parts, since
+     * the body is much more expensive to build for long messages.
+     * Use {@link #readBody(SmsMessage[])} to read it when needed.
+     */
+    public static SmsMessageData fromMessageParts(SmsMessage[] messageParts) {
         String sender = messageParts[0].getDisplayOriginatingAddress();
-        String body = SmsMessageUtils.getMessageBody(messageParts);
         long timeSent = messageParts[0].getTimestampMillis();
         long timeReceived = System.currentTimeMillis();
         int subId = SmsMessageUtils.getSubId(messageParts[0]);
 
         SmsMessageData message = new SmsMessageData();
         message.setSender(Normalizer.normalize(sender, Normalizer.Form.NFC));
-        message.setBody(Normalizer.normalize(body, Normalizer.Form.NFC));
         message.setTimeSent(timeSent);
         message.setTimeReceived(timeReceived);
         message.setRead(false);
@@ -38,6 +47,11 @@ public class SmsMessageData {
         return message;
     }
 
+    public static String readBody(SmsMessage[] messageParts) {
+        String body = SmsMessageUtils.getMessageBody(messageParts);
+        return Normalizer.normalize(body, Normalizer.Form.NFC);
+    }
+
     public void reset() {
         mId = -1;
         mSender = null;
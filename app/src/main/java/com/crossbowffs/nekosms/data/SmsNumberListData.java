@@ -0,0 +1,61 @@
+package com.crossbowffs.nekosms.data;
+
+public class SmsNumberListData {
+    private long mId = -1;
+    private SmsFilterAction mAction;
+    private String mName;
+    private int mNumberCount;
+
+    public void reset() {
+        mId = -1;
+        mAction = null;
+        mName = null;
+        mNumberCount = 0;
+    }
+
+    public SmsNumberListData setId(long id) {
+        mId = id;
+        return this;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public SmsNumberListData setAction(SmsFilterAction action) {
+        mAction = action;
+        return this;
+    }
+
+    public SmsFilterAction getAction() {
+        return mAction;
+    }
+
+    public SmsNumberListData setName(String name) {
+        mName = name;
+        return this;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public SmsNumberListData setNumberCount(int numberCount) {
+        mNumberCount = numberCount;
+        return this;
+    }
+
+    public int getNumberCount() {
+        return mNumberCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SmsNumberListData{" +
+            "id=" + mId +
+            ", action=" + mAction +
+            ", name=" + mName +
+            ", numberCount=" + mNumberCount +
+            "}";
+    }
+}
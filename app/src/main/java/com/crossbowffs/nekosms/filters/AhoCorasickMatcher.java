@@ -0,0 +1,235 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterField;
+import com.crossbowffs.nekosms.utils.StringUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/* package */ class AhoCorasickMatcher {
+    public static final int ANCHOR_NONE = 0;
+    public static final int ANCHOR_START = 1;
+    public static final int ANCHOR_END = 2;
+
+    public static class Builder {
+        private final boolean mIgnoreCase;
+        private final ArrayList<Map<Character, Integer>> mChildren = new ArrayList<>();
+        private final ArrayList<ArrayList<Integer>> mNodeOutputs = new ArrayList<>();
+        private final ArrayList<int[]> mPatterns = new ArrayList<>();
+
+        public Builder(boolean ignoreCase) {
+            mIgnoreCase = ignoreCase;
+            newNode();
+        }
+
+        private int newNode() {
+            mChildren.add(null);
+            mNodeOutputs.add(null);
+            return mChildren.size() - 1;
+        }
+
+        public Builder add(String needle, int anchors, int slot) {
+            if (needle.isEmpty()) {
+                throw new IllegalArgumentException("Needle must not be empty");
+            }
+
+            int node = 0;
+            for (int i = 0; i < needle.length(); ++i) {
+                char c = needle.charAt(i);
+                if (mIgnoreCase) {
+                    c = StringUtils.foldCase(c);
+                }
+                Map<Character, Integer> children = mChildren.get(node);
+                if (children == null) {
+                    children = new HashMap<>(4);
+                    mChildren.set(node, children);
+                }
+                Integer child = children.get(c);
+                if (child == null) {
+                    child = newNode();
+                    children.put(c, child);
+                }
+                node = child;
+            }
+
+            ArrayList<Integer> outputs = mNodeOutputs.get(node);
+            if (outputs == null) {
+                outputs = new ArrayList<>(1);
+                mNodeOutputs.set(node, outputs);
+            }
+            outputs.add(mPatterns.size());
+            mPatterns.add(new int[] {needle.length(), anchors, slot});
+            return this;
+        }
+
+        public int size() {
+            return mPatterns.size();
+        }
+
+        public AhoCorasickMatcher build() {
+            return new AhoCorasickMatcher(this);
+        }
+    }
+
+    private final boolean mIgnoreCase;
+    private final int[] mEdgeOffsets;
+    private final char[] mEdgeChars;
+    private final int[] mEdgeTargets;
+    private final int[] mFailure;
+    private final int[] mOutputLink;
+    private final int[] mOutputOffsets;
+    private final int[] mOutputs;
+    private final int[] mPatternLengths;
+    private final int[] mPatternAnchors;
+    private final int[] mPatternSlots;
+
+    private AhoCorasickMatcher(Builder builder) {
+        mIgnoreCase = builder.mIgnoreCase;
+        int nodeCount = builder.mChildren.size();
+
+        // Flatten the trie edges, sorted by character within
+        // each node so we can binary search them while matching.
+        int edgeCount = nodeCount - 1;
+        mEdgeOffsets = new int[nodeCount + 1];
+        mEdgeChars = new char[edgeCount];
+        mEdgeTargets = new int[edgeCount];
+        int edgeIndex = 0;
+        for (int node = 0; node < nodeCount; ++node) {
+            mEdgeOffsets[node] = edgeIndex;
+            Map<Character, Integer> children = builder.mChildren.get(node);
+            if (children == null) {
+                continue;
+            }
+            Character[] keys = children.keySet().toArray(new Character[children.size()]);
+            Arrays.sort(keys);
+            for (Character key : keys) {
+                mEdgeChars[edgeIndex] = key;
+                mEdgeTargets[edgeIndex] = children.get(key);
+                edgeIndex++;
+            }
+        }
+        mEdgeOffsets[nodeCount] = edgeIndex;
+
+        // Flatten the per-node output lists
+        int patternCount = builder.mPatterns.size();
+        mOutputOffsets = new int[nodeCount + 1];
+        mOutputs = new int[patternCount];
+        int outputIndex = 0;
+        for (int node = 0; node < nodeCount; ++node) {
+            mOutputOffsets[node] = outputIndex;
+            ArrayList<Integer> outputs = builder.mNodeOutputs.get(node);
+            if (outputs != null) {
+                for (Integer pattern : outputs) {
+                    mOutputs[outputIndex++] = pattern;
+                }
+            }
+        }
+        mOutputOffsets[nodeCount] = outputIndex;
+
+        mPatternLengths = new int[patternCount];
+        mPatternAnchors = new int[patternCount];
+        mPatternSlots = new int[patternCount];
+        for (int i = 0; i < patternCount; ++i) {
+            int[] pattern = builder.mPatterns.get(i);
+            mPatternLengths[i] = pattern[0];
+            mPatternAnchors[i] = pattern[1];
+            mPatternSlots[i] = pattern[2];
+        }
+
+        // Compute failure links in BFS order, so that the failure
+        // link of a node's parent is always known before the node
+        // itself. The output link points to the closest node along
+        // the failure chain that has outputs (0 if there is none).
+        mFailure = new int[nodeCount];
+        mOutputLink = new int[nodeCount];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int e = mEdgeOffsets[0]; e < mEdgeOffsets[1]; ++e) {
+            queue.add(mEdgeTargets[e]);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int e = mEdgeOffsets[node]; e < mEdgeOffsets[node + 1]; ++e) {
+                int child = mEdgeTargets[e];
+                int failure = nextState(mFailure[node], mEdgeChars[e]);
+                mFailure[child] = failure;
+                mOutputLink[child] = hasOutputs(failure) ? failure : mOutputLink[failure];
+                queue.add(child);
+            }
+        }
+    }
+
+    private boolean hasOutputs(int node) {
+        return mOutputOffsets[node] != mOutputOffsets[node + 1];
+    }
+
+    private int findEdge(int node, char c) {
+        int lo = mEdgeOffsets[node];
+        int hi = mEdgeOffsets[node + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char midChar = mEdgeChars[mid];
+            if (midChar < c) {
+                lo = mid + 1;
+            } else if (midChar > c) {
+                hi = mid - 1;
+            } else {
+                return mEdgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private int nextState(int node, char c) {
+        while (true) {
+            int next = findEdge(node, c);
+            if (next >= 0) {
+                return next;
+            } else if (node == 0) {
+                return 0;
+            }
+            node = mFailure[node];
+        }
+    }
+
+    public boolean isIgnoreCase() {
+        return mIgnoreCase;
+    }
+
+    public void match(SmsMatchContext context, SmsFilterField field, BitSet hits) {
+        // Case-insensitive matchers work on the folded text, which
+        // is shared with every other matcher and pattern.
+        if (mIgnoreCase) {
+            match(context.getFoldedField(field), hits);
+        } else {
+            match(context.getField(field), hits);
+        }
+    }
+
+    private void match(String text, BitSet hits) {
+        int length = text.length();
+        int state = 0;
+        for (int i = 0; i < length; ++i) {
+            state = nextState(state, text.charAt(i));
+
+            int node = hasOutputs(state) ? state : mOutputLink[state];
+            while (node != 0) {
+                for (int o = mOutputOffsets[node]; o < mOutputOffsets[node + 1]; ++o) {
+                    int pattern = mOutputs[o];
+                    int anchors = mPatternAnchors[pattern];
+                    if ((anchors & ANCHOR_START) != 0 && i + 1 != mPatternLengths[pattern]) {
+                        continue;
+                    }
+                    if ((anchors & ANCHOR_END) != 0 && i + 1 != length) {
+                        continue;
+                    }
+                    hits.set(mPatternSlots[pattern]);
+                }
+                node = mOutputLink[node];
+            }
+        }
+    }
+}
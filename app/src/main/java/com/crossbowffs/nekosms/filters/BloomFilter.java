@@ -0,0 +1,80 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.utils.Xlog;
+
+/* package */ class BloomFilter {
+    // Filters larger than this (4MB) are capped, which raises the
+    // false positive rate instead of using an unreasonable amount of
+    // memory in the phone process. At the default rate of 1%, that
+    // is still enough for about 3.5 million numbers.
+    private static final long MAX_BITS = 1L << 25;
+
+    private final long[] mWords;
+    private final long mBitCount;
+    private final int mHashCount;
+    private final double mFalsePositiveRate;
+
+    public BloomFilter(int expectedCount, double falsePositiveRate) {
+        // Standard sizing: m = -n ln(p) / ln(2)^2 bits, and
+        // k = m / n ln(2) hash functions.
+        int count = Math.max(expectedCount, 1);
+        long bitCount = (long)Math.ceil(-count * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        bitCount = Math.max(64, Math.min(bitCount, MAX_BITS));
+        mWords = new long[(int)((bitCount + 63) / 64)];
+        mBitCount = mWords.length * 64L;
+        mHashCount = Math.max(1, (int)Math.round((double)mBitCount / count * Math.log(2)));
+        if (bitCount == MAX_BITS) {
+            // p = (1 - e^(-kn/m))^k for the size we actually got
+            mFalsePositiveRate = Math.pow(1 - Math.exp(-(double)mHashCount * count / mBitCount), mHashCount);
+            Xlog.w("Bloom filter for %d keys capped at %d bits, false positive rate is %.2f%%",
+                count, mBitCount, mFalsePositiveRate * 100);
+        } else {
+            mFalsePositiveRate = falsePositiveRate;
+        }
+    }
+
+    public double getFalsePositiveRate() {
+        return mFalsePositiveRate;
+    }
+
+    public long getBitCount() {
+        return mBitCount;
+    }
+
+    public int getHashCount() {
+        return mHashCount;
+    }
+
+    private static long mix(long key) {
+        // SplitMix64 finalizer, so that keys which only differ in
+        // a few bits (e.g. consecutive numbers) spread out evenly
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+
+    public void add(long key) {
+        // The k indices are derived from two halves of a single hash
+        // (Kirsch and Mitzenmacher), which is as good as k hashes.
+        long hash = mix(key);
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+        for (int i = 0; i < mHashCount; ++i) {
+            long bit = ((hash1 + (long)i * hash2) & Long.MAX_VALUE) % mBitCount;
+            mWords[(int)(bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long key) {
+        long hash = mix(key);
+        int hash1 = (int)hash;
+        int hash2 = (int)(hash >>> 32);
+        for (int i = 0; i < mHashCount; ++i) {
+            long bit = ((hash1 + (long)i * hash2) & Long.MAX_VALUE) % mBitCount;
+            if ((mWords[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
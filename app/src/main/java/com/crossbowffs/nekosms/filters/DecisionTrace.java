@@ -0,0 +1,62 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsDecisionReason;
+import com.crossbowffs.nekosms.loader.DecisionTraceBlob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class DecisionTrace {
+    // Keeps the last few filtering decisions, so they can be looked
+    // at in the app without turning on verbose logging. Recording
+    // happens for every message, so the records live in preallocated
+    // arrays, and nothing is formatted until the app asks for them.
+    // Only a hash of the sender is kept, never the message itself.
+    private final long[] mTimes;
+    private final byte[] mReasons;
+    private final long[] mIds;
+    private final long[] mMatchTimes;
+    private final int[] mSenderHashes;
+    private final int[] mSubIds;
+    private long mCount;
+
+    public DecisionTrace(int capacity) {
+        mTimes = new long[capacity];
+        mReasons = new byte[capacity];
+        mIds = new long[capacity];
+        mMatchTimes = new long[capacity];
+        mSenderHashes = new int[capacity];
+        mSubIds = new int[capacity];
+    }
+
+    public synchronized void record(SmsMatchContext context, SmsDecisionReason reason, long id, long matchTimeNanos) {
+        int index = (int)(mCount % mTimes.length);
+        String sender = context.getSender();
+        mTimes[index] = System.currentTimeMillis();
+        mReasons[index] = (byte)reason.ordinal();
+        mIds[index] = id;
+        mMatchTimes[index] = matchTimeNanos;
+        mSenderHashes[index] = (sender == null) ? 0 : sender.hashCode();
+        mSubIds[index] = context.getSubId();
+        mCount++;
+    }
+
+    /**
+     * Returns the recorded decisions in the format read by
+     * {@link DecisionTraceBlob}, oldest first.
+     */
+    public synchronized byte[] toByteArray() throws IOException {
+        int count = (int)Math.min(mCount, mTimes.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        DecisionTraceBlob.writeHeader(out, count);
+        for (long i = mCount - count; i < mCount; ++i) {
+            int index = (int)(i % mTimes.length);
+            DecisionTraceBlob.writeRecord(out, mTimes[index], mReasons[index], mIds[index],
+                mMatchTimes[index], mSenderHashes[index], mSubIds[index]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,33 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterPatternData;
+import com.crossbowffs.nekosms.utils.Xlog;
+
+/* package */ class NumberFilterPattern extends SmsFilterPattern {
+    private final PhoneNumberKey mNumber;
+
+    public NumberFilterPattern(SmsFilterPatternData data) {
+        super(data);
+
+        // Patterns that aren't phone numbers can't match anything.
+        // The editor doesn't let these through, but older backups
+        // or manually edited databases might.
+        mNumber = PhoneNumberKey.parse(getPattern());
+        if (mNumber == null) {
+            Xlog.w("Not a valid phone number pattern: %s", getPattern());
+        }
+    }
+
+    public PhoneNumberKey getNumber() {
+        return mNumber;
+    }
+
+    @Override
+    public boolean match(SmsMatchContext context) {
+        if (mNumber == null) {
+            return false;
+        }
+        PhoneNumberKey number = context.getNumberField(getField());
+        return number != null && mNumber.matches(number);
+    }
+}
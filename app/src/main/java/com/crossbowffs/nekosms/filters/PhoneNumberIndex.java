@@ -0,0 +1,79 @@
+package com.crossbowffs.nekosms.filters;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/* package */ class PhoneNumberIndex {
+    // Numbers are bucketed by their last few digits, which any
+    // two matching numbers must share (see PhoneNumberKey), then
+    // each candidate in the bucket is compared in full. Buckets
+    // are almost always a single number, so looking up a sender
+    // takes constant time no matter how many rules there are.
+    private static class Bucket {
+        private final PhoneNumberKey[] mNumbers;
+        private final int[] mSlots;
+
+        private Bucket(ArrayList<PhoneNumberKey> numbers, ArrayList<Integer> slots) {
+            mNumbers = numbers.toArray(new PhoneNumberKey[numbers.size()]);
+            mSlots = new int[slots.size()];
+            for (int i = 0; i < mSlots.length; ++i) {
+                mSlots[i] = slots.get(i);
+            }
+        }
+    }
+
+    public static class Builder {
+        private final HashMap<String, ArrayList<PhoneNumberKey>> mNumbers = new HashMap<>();
+        private final HashMap<String, ArrayList<Integer>> mSlots = new HashMap<>();
+        private int mSize;
+
+        public Builder add(PhoneNumberKey number, int slot) {
+            String key = number.getIndexKey();
+            ArrayList<PhoneNumberKey> numbers = mNumbers.get(key);
+            ArrayList<Integer> slots = mSlots.get(key);
+            if (numbers == null) {
+                numbers = new ArrayList<>(1);
+                slots = new ArrayList<>(1);
+                mNumbers.put(key, numbers);
+                mSlots.put(key, slots);
+            }
+            numbers.add(number);
+            slots.add(slot);
+            mSize++;
+            return this;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public PhoneNumberIndex build() {
+            return new PhoneNumberIndex(this);
+        }
+    }
+
+    private final HashMap<String, Bucket> mBuckets;
+
+    private PhoneNumberIndex(Builder builder) {
+        mBuckets = new HashMap<>(builder.mNumbers.size() * 4 / 3 + 1);
+        for (Map.Entry<String, ArrayList<PhoneNumberKey>> entry : builder.mNumbers.entrySet()) {
+            String key = entry.getKey();
+            mBuckets.put(key, new Bucket(entry.getValue(), builder.mSlots.get(key)));
+        }
+    }
+
+    public void match(PhoneNumberKey number, BitSet hits) {
+        Bucket bucket = mBuckets.get(number.getIndexKey());
+        if (bucket == null) {
+            return;
+        }
+        PhoneNumberKey[] numbers = bucket.mNumbers;
+        for (int i = 0; i < numbers.length; ++i) {
+            if (numbers[i].matches(number)) {
+                hits.set(bucket.mSlots[i]);
+            }
+        }
+    }
+}
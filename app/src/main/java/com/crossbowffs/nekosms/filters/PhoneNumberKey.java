@@ -0,0 +1,124 @@
+package com.crossbowffs.nekosms.filters;
+
+public final class PhoneNumberKey {
+    // Numbers must share at least this many trailing digits to be
+    // considered the same if they are not exactly equal. This is
+    // the same minimum Android uses when comparing numbers loosely.
+    /* package */ static final int MIN_MATCH_DIGITS = 7;
+
+    // The longest country calling code is 3 digits, which is as
+    // much as a number written with one may differ from the same
+    // number written without one.
+    /* package */ static final int MAX_COUNTRY_CODE_DIGITS = 3;
+
+    private final String mDigits;
+    private final boolean mInternational;
+
+    private PhoneNumberKey(String digits, boolean international) {
+        mDigits = digits;
+        mInternational = international;
+    }
+
+    /**
+     * Converts a phone number into a canonical form, so that e.g.
+     * "+1 (555) 123-4567", "15551234567" and "555-1234567" all
+     * match each other. Returns null if the string does not look
+     * like a phone number (e.g. alphanumeric sender IDs).
+     */
+    public static PhoneNumberKey parse(String number) {
+        int length = number.length();
+        StringBuilder digits = new StringBuilder(length);
+        boolean international = false;
+        for (int i = 0; i < length; ++i) {
+            char c = number.charAt(i);
+            int digit = Character.digit(c, 10);
+            if (digit >= 0) {
+                digits.append((char)('0' + digit));
+            } else if (c == '+' && digits.length() == 0 && !international) {
+                international = true;
+            } else if (!isSeparator(c)) {
+                return null;
+            }
+        }
+
+        // 00 is the most common international call prefix, and a
+        // single leading 0 is the most common trunk prefix, which is
+        // dropped when the number is written with a country code.
+        int start = 0;
+        if (!international) {
+            if (digits.length() >= 2 && digits.charAt(0) == '0' && digits.charAt(1) == '0') {
+                international = true;
+                start = 2;
+            } else if (digits.length() >= 1 && digits.charAt(0) == '0') {
+                start = 1;
+            }
+        }
+        if (digits.length() == start) {
+            return null;
+        }
+        return new PhoneNumberKey(digits.substring(start), international);
+    }
+
+    private static boolean isSeparator(char c) {
+        switch (c) {
+        case ' ':
+        case '\u00a0':
+        case '-':
+        case '.':
+        case '/':
+        case '(':
+        case ')':
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public String getDigits() {
+        return mDigits;
+    }
+
+    public boolean isInternational() {
+        return mInternational;
+    }
+
+    /* package */ String getIndexKey() {
+        // Any two matching numbers have the same index key
+        int length = mDigits.length();
+        if (length <= MIN_MATCH_DIGITS) {
+            return mDigits;
+        }
+        return mDigits.substring(length - MIN_MATCH_DIGITS);
+    }
+
+    public boolean matches(PhoneNumberKey other) {
+        if (mDigits.equals(other.mDigits)) {
+            return true;
+        }
+
+        // Two complete international numbers must be equal; otherwise,
+        // the shorter one may be missing a country code.
+        if (mInternational && other.mInternational) {
+            return false;
+        }
+        PhoneNumberKey shorter = this;
+        PhoneNumberKey longer = other;
+        if (shorter.mDigits.length() > longer.mDigits.length()) {
+            shorter = other;
+            longer = this;
+        }
+        if (shorter.mInternational) {
+            return false;
+        }
+        int shorterLength = shorter.mDigits.length();
+        int longerLength = longer.mDigits.length();
+        return shorterLength >= MIN_MATCH_DIGITS &&
+               longerLength - shorterLength <= MAX_COUNTRY_CODE_DIGITS &&
+               longer.mDigits.endsWith(shorter.mDigits);
+    }
+
+    @Override
+    public String toString() {
+        return (mInternational ? "+" : "") + mDigits;
+    }
+}
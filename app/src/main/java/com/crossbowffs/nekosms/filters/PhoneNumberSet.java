@@ -0,0 +1,189 @@
+package com.crossbowffs.nekosms.filters;
+
+import java.util.Arrays;
+
+public class PhoneNumberSet {
+    // Each number is packed into a long, so large lists take 8 bytes
+    // per number and can be searched without creating any objects.
+    // From the most significant bit down, a key holds the digits in
+    // reverse order (padded to MAX_DIGITS with zeros), then the digit
+    // count, then whether the number is international. Sorting by
+    // reversed digits puts numbers that end with the same digits next
+    // to each other, which is what PhoneNumberKey.matches() needs.
+    public static final int MAX_DIGITS = 15;
+    private static final int LENGTH_SHIFT = 1;
+    private static final int LENGTH_MASK = 0xf;
+    private static final int DIGITS_SHIFT = 5;
+    private static final long INTERNATIONAL_FLAG = 1;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_DIGITS; ++i) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final long[] mKeys;
+
+    private PhoneNumberSet(long[] keys) {
+        mKeys = keys;
+    }
+
+    /**
+     * Creates a set from keys that are already sorted and
+     * contain no duplicates, e.g. ones returned by {@link #getKeys()}.
+     */
+    public static PhoneNumberSet fromSortedKeys(long[] keys) {
+        return new PhoneNumberSet(keys);
+    }
+
+    /**
+     * Sorts and removes duplicates from the first {@code count}
+     * keys, then creates a set from them.
+     */
+    public static PhoneNumberSet fromKeys(long[] keys, int count) {
+        long[] sorted = Arrays.copyOf(keys, count);
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; ++i) {
+            if (unique == 0 || sorted[i] != sorted[unique - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        if (unique != sorted.length) {
+            sorted = Arrays.copyOf(sorted, unique);
+        }
+        return new PhoneNumberSet(sorted);
+    }
+
+    /**
+     * Returns the key for the given number, or -1 if the number
+     * is too long to be a valid phone number.
+     */
+    public static long encode(PhoneNumberKey number) {
+        String digits = number.getDigits();
+        int length = digits.length();
+        if (length > MAX_DIGITS) {
+            return -1;
+        }
+        return makeKey(reverseDigits(digits), length, number.isInternational());
+    }
+
+    private static long reverseDigits(String digits) {
+        int length = digits.length();
+        long value = 0;
+        for (int i = 0; i < MAX_DIGITS; ++i) {
+            value *= 10;
+            if (i < length) {
+                value += digits.charAt(length - 1 - i) - '0';
+            }
+        }
+        return value;
+    }
+
+    private static long makeKey(long reversedDigits, int length, boolean international) {
+        return (reversedDigits << DIGITS_SHIFT) | ((long)length << LENGTH_SHIFT) | (international ? INTERNATIONAL_FLAG : 0);
+    }
+
+    private static long truncate(long reversedDigits, int length) {
+        // Keeps the first (i.e. last in the original number)
+        // length digits, and zeroes out the rest.
+        long unit = POWERS_OF_TEN[MAX_DIGITS - length];
+        return reversedDigits - reversedDigits % unit;
+    }
+
+    /**
+     * Returns the key with only the digits that any matching
+     * number must share, see {@link PhoneNumberKey#getIndexKey()}.
+     * Two numbers can only match if their index keys are equal.
+     */
+    public static long getIndexKey(long key) {
+        long reversed = key >>> DIGITS_SHIFT;
+        int length = Math.min((int)(key >>> LENGTH_SHIFT) & LENGTH_MASK, PhoneNumberKey.MIN_MATCH_DIGITS);
+        return makeKey(truncate(reversed, length), length, false);
+    }
+
+    public boolean containsIndexKey(long indexKey) {
+        // Numbers shorter than the index key length only have the
+        // one index key; longer ones share their index key with
+        // every other number that ends with the same digits.
+        long reversed = indexKey >>> DIGITS_SHIFT;
+        int length = (int)(indexKey >>> LENGTH_SHIFT) & LENGTH_MASK;
+        if (length < PhoneNumberKey.MIN_MATCH_DIGITS) {
+            return Arrays.binarySearch(mKeys, makeKey(reversed, length, false)) >= 0 ||
+                   Arrays.binarySearch(mKeys, makeKey(reversed, length, true)) >= 0;
+        }
+        long end = (reversed + POWERS_OF_TEN[MAX_DIGITS - length]) << DIGITS_SHIFT;
+        for (int i = lowerBound(reversed << DIGITS_SHIFT); i < mKeys.length && mKeys[i] < end; ++i) {
+            int keyLength = (int)(mKeys[i] >>> LENGTH_SHIFT) & LENGTH_MASK;
+            if (keyLength >= length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long[] getKeys() {
+        return mKeys;
+    }
+
+    public int size() {
+        return mKeys.length;
+    }
+
+    public boolean contains(PhoneNumberKey number) {
+        // This checks the same conditions as PhoneNumberKey.matches(),
+        // against every number in the set at once.
+        String digits = number.getDigits();
+        int length = digits.length();
+        if (length > MAX_DIGITS) {
+            return false;
+        }
+        long reversed = reverseDigits(digits);
+
+        // Same digits, with or without a country code marker
+        if (Arrays.binarySearch(mKeys, makeKey(reversed, length, false)) >= 0 ||
+            Arrays.binarySearch(mKeys, makeKey(reversed, length, true)) >= 0) {
+            return true;
+        }
+
+        // A shorter number in the set that is missing our country code
+        int minLength = Math.max(PhoneNumberKey.MIN_MATCH_DIGITS, length - PhoneNumberKey.MAX_COUNTRY_CODE_DIGITS);
+        for (int shorter = minLength; shorter < length; ++shorter) {
+            if (Arrays.binarySearch(mKeys, makeKey(truncate(reversed, shorter), shorter, false)) >= 0) {
+                return true;
+            }
+        }
+
+        // A longer number in the set with a country code we're missing.
+        // All of them are in the range of keys that start with our
+        // reversed digits, which also contains numbers whose padding
+        // happens to match, so we still need to check the length.
+        if (number.isInternational() || length < PhoneNumberKey.MIN_MATCH_DIGITS) {
+            return false;
+        }
+        long end = (reversed + POWERS_OF_TEN[MAX_DIGITS - length]) << DIGITS_SHIFT;
+        for (int i = lowerBound(reversed << DIGITS_SHIFT); i < mKeys.length && mKeys[i] < end; ++i) {
+            int keyLength = (int)(mKeys[i] >>> LENGTH_SHIFT) & LENGTH_MASK;
+            if (keyLength > length && keyLength - length <= PhoneNumberKey.MAX_COUNTRY_CODE_DIGITS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int lowerBound(long key) {
+        int lo = 0;
+        int hi = mKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mKeys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -8,7 +8,20 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /* package */ class RegexFilterPattern extends SmsFilterPattern {
-    private final Matcher mMatcher;
+    // Constructs that cannot be safely combined with other patterns
+    // into a single alternation: backreferences and named groups
+    // depend on group numbering/naming, lookaround is kept out to
+    // be conservative, \Q quotes and comments (?x) can swallow the
+    // closing parenthesis of the wrapping group.
+    private static final Pattern UNMERGEABLE_PATTERN = Pattern.compile(
+        "\\\\[1-9]|\\\\k<|\\\\Q|\\(\\?<|\\(\\?[=!]|\\(\\?[a-zA-Z-]*x");
+
+    private final String mRegex;
+    private final int mRegexFlags;
+    private final String mRequiredLiteral;
+    private final boolean mRequiredLiteralIgnoreCase;
+    private final Pattern mPattern;
+    private final int mGroupCount;
 
     public RegexFilterPattern(SmsFilterPatternData data) {
         super(data);
@@ -28,23 +41,56 @@ import java.util.regex.Pattern;
         if (!isCaseSensitive()) {
             regexFlags |= Pattern.CASE_INSENSITIVE;
         }
-        mMatcher = Pattern.compile(regexPattern, regexFlags).matcher("");
-    }
+        mRegex = regexPattern;
+        mRegexFlags = regexFlags;
+        mPattern = Pattern.compile(regexPattern, regexFlags);
+        mGroupCount = mPattern.matcher("").groupCount();
 
-    @Override
-    public boolean match(String sender, String body) {
-        switch (getField()) {
-        case SENDER:
-            mMatcher.reset(sender);
-            break;
-        case BODY:
-            mMatcher.reset(body);
-            break;
+        // Find a literal string that every match must contain, so we
+        // can skip running the regex on messages that don't contain
+        // it. A leading (?i) is common enough to be worth handling;
+        // any other inline flags just end the search early.
+        boolean literalIgnoreCase = !isCaseSensitive();
+        String literalRegex = regexPattern;
+        if (literalRegex.startsWith("(?i)")) {
+            literalIgnoreCase = true;
+            literalRegex = literalRegex.substring(4);
         }
+        mRequiredLiteral = RegexLiteralExtractor.extract(literalRegex, literalIgnoreCase);
+        mRequiredLiteralIgnoreCase = literalIgnoreCase;
+    }
 
-        boolean matches = mMatcher.find();
-        mMatcher.reset("");
-        return matches;
+    public String getRegex() {
+        return mRegex;
+    }
+
+    public int getRegexFlags() {
+        return mRegexFlags;
+    }
+
+    public int getGroupCount() {
+        return mGroupCount;
+    }
+
+    public String getRequiredLiteral() {
+        return mRequiredLiteral;
+    }
+
+    public boolean isRequiredLiteralIgnoreCase() {
+        return mRequiredLiteralIgnoreCase;
+    }
+
+    public boolean isMergeable() {
+        return !UNMERGEABLE_PATTERN.matcher(mRegex).find();
+    }
+
+    @Override
+    public boolean match(SmsMatchContext context) {
+        // Pattern is immutable, but Matcher is not, so we need a new
+        // matcher for each call. This lets multiple threads (e.g. one
+        // per SIM) match against the same pattern at the same time.
+        Matcher matcher = mPattern.matcher(context.getField(getField()));
+        return matcher.find();
     }
 
     private static String wildcardToRegex(String wildcardString) {
@@ -0,0 +1,321 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.utils.StringUtils;
+
+import java.util.Locale;
+
+/* package */ final class RegexLiteralExtractor {
+    private static final int MIN_LITERAL_LENGTH = 2;
+
+    private final String mRegex;
+    private final boolean mIgnoreCase;
+    private final StringBuilder mCurrent = new StringBuilder();
+    private String mBest = "";
+    private int mIndex;
+    private boolean mLastWasLiteral;
+
+    private RegexLiteralExtractor(String regex, boolean ignoreCase) {
+        mRegex = regex;
+        mIgnoreCase = ignoreCase;
+    }
+
+    /**
+     * Returns the longest string that must appear in any text matched
+     * by the given regex, or null if no such string could be found.
+     * This only looks at the top level of the pattern; anything inside
+     * groups or character classes is treated as unknown. It errs on the
+     * side of returning null, since a wrong result would cause matching
+     * messages to be skipped.
+     */
+    public static String extract(String regex, boolean ignoreCase) {
+        RegexLiteralExtractor extractor = new RegexLiteralExtractor(regex, ignoreCase);
+        if (!extractor.parse()) {
+            return null;
+        }
+        if (extractor.mBest.length() < MIN_LITERAL_LENGTH) {
+            return null;
+        }
+        return extractor.mBest;
+    }
+
+    private boolean parse() {
+        int length = mRegex.length();
+        while (mIndex < length) {
+            char c = mRegex.charAt(mIndex++);
+            switch (c) {
+            case '|':
+                // A top-level alternation means no single literal
+                // is required in every match.
+                return false;
+            case '(':
+                if (isInlineFlags()) {
+                    // Flags change how everything after this point
+                    // is interpreted, so stop here.
+                    endRun();
+                    return true;
+                }
+                skipGroup();
+                endAtom();
+                break;
+            case '[':
+                skipClass();
+                endAtom();
+                break;
+            case '\\':
+                parseEscape();
+                break;
+            case '.':
+            case '^':
+            case '$':
+                endAtom();
+                break;
+            case '*':
+            case '?':
+                dropOptional();
+                skipQuantifierSuffix();
+                break;
+            case '+':
+                endAtom();
+                skipQuantifierSuffix();
+                break;
+            case '{':
+                int close = mRegex.indexOf('}', mIndex);
+                if (close < 0) {
+                    return false;
+                }
+                if (mRegex.charAt(mIndex) == '0') {
+                    dropOptional();
+                } else {
+                    endAtom();
+                }
+                mIndex = close + 1;
+                skipQuantifierSuffix();
+                break;
+            default:
+                appendLiteral(readCodePoint(c));
+                break;
+            }
+        }
+        endRun();
+        return true;
+    }
+
+    private int readCodePoint(char c) {
+        // Quantifiers apply to a whole code point, so a surrogate
+        // pair is read (and later dropped) as a single literal.
+        if (Character.isHighSurrogate(c) && mIndex < mRegex.length() && Character.isLowSurrogate(mRegex.charAt(mIndex))) {
+            return Character.toCodePoint(c, mRegex.charAt(mIndex++));
+        }
+        return c;
+    }
+
+    private void appendLiteral(int codePoint) {
+        if (mIgnoreCase && !isFoldStable(codePoint)) {
+            endAtom();
+            return;
+        }
+        mCurrent.appendCodePoint(codePoint);
+        mLastWasLiteral = true;
+    }
+
+    private static boolean isFoldStable(int codePoint) {
+        // When matching case-insensitively, the regex engine compares
+        // characters by their folded form, but the prefilter folds the
+        // text one char at a time. Characters it can't fold the same
+        // way cannot be safely matched by the prefilter: those where
+        // folding is not stable, cased supplementary characters (the
+        // prefilter only sees their surrogates), and those with a
+        // multi-char fold, which Android's regex engine matches
+        // against e.g. "ss" for ß, or "fi" for the ligature.
+        if (Character.isSupplementaryCodePoint(codePoint)) {
+            return Character.toUpperCase(codePoint) == codePoint && Character.toLowerCase(codePoint) == codePoint;
+        }
+        char c = (char)codePoint;
+        char folded = StringUtils.foldCase(c);
+        if (StringUtils.foldCase(folded) != folded) {
+            return false;
+        }
+        return String.valueOf(c).toLowerCase(Locale.ROOT).length() == 1 &&
+            String.valueOf(folded).toUpperCase(Locale.ROOT).length() == 1;
+    }
+
+    private void endAtom() {
+        endRun();
+        mLastWasLiteral = false;
+    }
+
+    private void endRun() {
+        if (mCurrent.length() > mBest.length()) {
+            mBest = mCurrent.toString();
+        }
+        mCurrent.setLength(0);
+    }
+
+    private void dropOptional() {
+        // The previous atom may match zero times; if it was part
+        // of the current literal run, it is no longer required.
+        if (mLastWasLiteral && mCurrent.length() > 0) {
+            int last = mCurrent.codePointBefore(mCurrent.length());
+            mCurrent.setLength(mCurrent.length() - Character.charCount(last));
+        }
+        endAtom();
+    }
+
+    private void skipQuantifierSuffix() {
+        // Reluctant and possessive quantifiers
+        if (mIndex < mRegex.length()) {
+            char c = mRegex.charAt(mIndex);
+            if (c == '?' || c == '+') {
+                mIndex++;
+            }
+        }
+    }
+
+    private boolean isInlineFlags() {
+        // Matches (?i), (?-i), (?iu-x) etc, but not (?:, (?=, (?i:abc)
+        int i = mIndex;
+        if (i >= mRegex.length() || mRegex.charAt(i) != '?') {
+            return false;
+        }
+        for (i++; i < mRegex.length(); ++i) {
+            char c = mRegex.charAt(i);
+            if (c == ')') {
+                return true;
+            } else if (!Character.isLetter(c) && c != '-') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void skipGroup() {
+        int depth = 1;
+        while (mIndex < mRegex.length() && depth > 0) {
+            char c = mRegex.charAt(mIndex++);
+            if (c == '\\') {
+                skipEscapeInGroup();
+            } else if (c == '[') {
+                skipClass();
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+        }
+    }
+
+    private void skipEscapeInGroup() {
+        if (mIndex >= mRegex.length()) {
+            return;
+        }
+        char c = mRegex.charAt(mIndex++);
+        if (c == 'Q') {
+            int end = mRegex.indexOf("\\E", mIndex);
+            mIndex = (end < 0) ? mRegex.length() : end + 2;
+        }
+    }
+
+    private void skipClass() {
+        // A ] right after the opening [ (or [^) is a literal
+        int length = mRegex.length();
+        if (mIndex < length && mRegex.charAt(mIndex) == '^') {
+            mIndex++;
+        }
+        if (mIndex < length && mRegex.charAt(mIndex) == ']') {
+            mIndex++;
+        }
+        int depth = 1;
+        while (mIndex < length && depth > 0) {
+            char c = mRegex.charAt(mIndex++);
+            if (c == '\\') {
+                skipEscapeInGroup();
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            }
+        }
+    }
+
+    private void skipBraces() {
+        if (mIndex < mRegex.length() && mRegex.charAt(mIndex) == '{') {
+            int close = mRegex.indexOf('}', mIndex);
+            mIndex = (close < 0) ? mRegex.length() : close + 1;
+        }
+    }
+
+    private void parseEscape() {
+        int length = mRegex.length();
+        if (mIndex >= length) {
+            endAtom();
+            return;
+        }
+
+        char c = mRegex.charAt(mIndex++);
+        switch (c) {
+        case 't': appendLiteral('\t'); return;
+        case 'n': appendLiteral('\n'); return;
+        case 'r': appendLiteral('\r'); return;
+        case 'f': appendLiteral('\f'); return;
+        case 'a': appendLiteral('\u0007'); return;
+        case 'e': appendLiteral('\u001b'); return;
+        case 'Q':
+            int end = mRegex.indexOf("\\E", mIndex);
+            if (end < 0) {
+                end = length;
+            }
+            for (int i = mIndex; i < end; i += Character.charCount(mRegex.codePointAt(i))) {
+                appendLiteral(mRegex.codePointAt(i));
+            }
+            mIndex = Math.min(end + 2, length);
+            return;
+        case 'x':
+            if (mIndex < length && mRegex.charAt(mIndex) == '{') {
+                skipBraces();
+            } else {
+                mIndex = Math.min(mIndex + 2, length);
+            }
+            break;
+        case 'u':
+            mIndex = Math.min(mIndex + 4, length);
+            break;
+        case '0':
+            for (int i = 0; i < 3 && mIndex < length; ++i) {
+                char d = mRegex.charAt(mIndex);
+                if (d < '0' || d > '7') {
+                    break;
+                }
+                mIndex++;
+            }
+            break;
+        case 'c':
+            mIndex = Math.min(mIndex + 1, length);
+            break;
+        case 'p':
+        case 'P':
+        case 'N':
+            if (mIndex < length && mRegex.charAt(mIndex) == '{') {
+                skipBraces();
+            } else {
+                mIndex = Math.min(mIndex + 1, length);
+            }
+            break;
+        case 'k':
+            int close = mRegex.indexOf('>', mIndex);
+            mIndex = (close < 0) ? length : close + 1;
+            break;
+        default:
+            if (!Character.isLetterOrDigit(c)) {
+                // Escaped punctuation is a literal
+                appendLiteral(readCodePoint(c));
+                return;
+            }
+            break;
+        }
+
+        // Character classes (\d, \w, ...), boundaries (\b, ...),
+        // backreferences and code point escapes are not literals.
+        // The latter could be, but are uncommon enough to not bother.
+        endAtom();
+    }
+}
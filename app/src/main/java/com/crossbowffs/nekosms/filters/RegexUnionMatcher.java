@@ -0,0 +1,99 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.utils.Xlog;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/* package */ class RegexUnionMatcher {
+    public static class Builder {
+        private final int mFlags;
+        private final StringBuilder mRegex = new StringBuilder();
+        private final ArrayList<int[]> mMembers = new ArrayList<>();
+        private int mGroupCount;
+
+        public Builder(int flags) {
+            mFlags = flags;
+        }
+
+        public Builder add(String regex, int groupCount, int slot) {
+            // Each member is wrapped in its own capturing group, so
+            // we can tell which one matched. Any inline flags used by
+            // the member are scoped to that group.
+            if (mRegex.length() > 0) {
+                mRegex.append('|');
+            }
+            mRegex.append('(').append(regex).append(')');
+            mMembers.add(new int[] {mGroupCount + 1, slot});
+            mGroupCount += groupCount + 1;
+            return this;
+        }
+
+        public int size() {
+            return mMembers.size();
+        }
+
+        public int[] getSlots() {
+            int[] slots = new int[mMembers.size()];
+            for (int i = 0; i < slots.length; ++i) {
+                slots[i] = mMembers.get(i)[1];
+            }
+            return slots;
+        }
+
+        public RegexUnionMatcher build() {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(mRegex.toString(), mFlags);
+            } catch (PatternSyntaxException e) {
+                Xlog.e("Failed to merge regex patterns", e);
+                return null;
+            }
+            return new RegexUnionMatcher(pattern, this);
+        }
+    }
+
+    private final Pattern mPattern;
+    private final int[] mGroups;
+    private final int[] mSlots;
+
+    private RegexUnionMatcher(Pattern pattern, Builder builder) {
+        mPattern = pattern;
+        int count = builder.mMembers.size();
+        mGroups = new int[count];
+        mSlots = new int[count];
+        for (int i = 0; i < count; ++i) {
+            int[] member = builder.mMembers.get(i);
+            mGroups[i] = member[0];
+            mSlots[i] = member[1];
+        }
+    }
+
+    public void match(String text, BitSet hits, BitSet pending) {
+        // If the union does not match, none of its members can match,
+        // which is by far the most common case. This is not cheaper
+        // than trying each member on its own, since the backtracking
+        // engine tries every alternative at every position anyway; it
+        // only saves creating a Matcher per member. Otherwise, we know
+        // for sure that the member whose group participated in the
+        // match matched; the others may or may not match, so they
+        // are left for the caller to evaluate individually.
+        Matcher matcher = mPattern.matcher(text);
+        if (!matcher.find()) {
+            return;
+        }
+
+        int matched = -1;
+        for (int i = 0; i < mGroups.length; ++i) {
+            if (matched < 0 && matcher.start(mGroups[i]) >= 0) {
+                matched = i;
+                hits.set(mSlots[i]);
+            } else {
+                pending.set(mSlots[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterMode;
+import com.crossbowffs.nekosms.utils.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/* package */ class SenderIndex {
+    private static class Trie {
+        private final boolean mReversed;
+        private final boolean mIgnoreCase;
+        private final int[] mEdgeOffsets;
+        private final char[] mEdgeChars;
+        private final int[] mEdgeTargets;
+        private final int[] mSlotOffsets;
+        private final int[] mSlots;
+
+        private Trie(TrieBuilder builder) {
+            mReversed = builder.mReversed;
+            mIgnoreCase = builder.mIgnoreCase;
+            int nodeCount = builder.mChildren.size();
+            mEdgeOffsets = new int[nodeCount + 1];
+            mEdgeChars = new char[nodeCount - 1];
+            mEdgeTargets = new int[nodeCount - 1];
+            mSlotOffsets = new int[nodeCount + 1];
+            mSlots = new int[builder.mSlotCount];
+
+            int edgeIndex = 0;
+            int slotIndex = 0;
+            for (int node = 0; node < nodeCount; ++node) {
+                mEdgeOffsets[node] = edgeIndex;
+                Map<Character, Integer> children = builder.mChildren.get(node);
+                if (children != null) {
+                    Character[] keys = children.keySet().toArray(new Character[children.size()]);
+                    Arrays.sort(keys);
+                    for (Character key : keys) {
+                        mEdgeChars[edgeIndex] = key;
+                        mEdgeTargets[edgeIndex] = children.get(key);
+                        edgeIndex++;
+                    }
+                }
+
+                mSlotOffsets[node] = slotIndex;
+                ArrayList<Integer> slots = builder.mNodeSlots.get(node);
+                if (slots != null) {
+                    for (Integer slot : slots) {
+                        mSlots[slotIndex++] = slot;
+                    }
+                }
+            }
+            mEdgeOffsets[nodeCount] = edgeIndex;
+            mSlotOffsets[nodeCount] = slotIndex;
+        }
+
+        private int findEdge(int node, char c) {
+            int lo = mEdgeOffsets[node];
+            int hi = mEdgeOffsets[node + 1] - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char midChar = mEdgeChars[mid];
+                if (midChar < c) {
+                    lo = mid + 1;
+                } else if (midChar > c) {
+                    hi = mid - 1;
+                } else {
+                    return mEdgeTargets[mid];
+                }
+            }
+            return -1;
+        }
+
+        public void match(SmsMatchContext context, BitSet hits) {
+            // Walk down the trie one character at a time. Every node
+            // we pass through corresponds to a prefix (or suffix, for
+            // the reversed trie) of the sender, so all of its slots match.
+            String key = mIgnoreCase ? context.getFoldedSender() : context.getSender();
+            int length = key.length();
+            int node = 0;
+            for (int i = 0; i < length; ++i) {
+                node = findEdge(node, key.charAt(mReversed ? length - 1 - i : i));
+                if (node < 0) {
+                    return;
+                }
+                for (int s = mSlotOffsets[node]; s < mSlotOffsets[node + 1]; ++s) {
+                    hits.set(mSlots[s]);
+                }
+            }
+        }
+    }
+
+    private static class TrieBuilder {
+        private final boolean mReversed;
+        private final boolean mIgnoreCase;
+        private final ArrayList<Map<Character, Integer>> mChildren = new ArrayList<>();
+        private final ArrayList<ArrayList<Integer>> mNodeSlots = new ArrayList<>();
+        private int mSlotCount;
+
+        public TrieBuilder(boolean reversed, boolean ignoreCase) {
+            mReversed = reversed;
+            mIgnoreCase = ignoreCase;
+            newNode();
+        }
+
+        private int newNode() {
+            mChildren.add(null);
+            mNodeSlots.add(null);
+            return mChildren.size() - 1;
+        }
+
+        public void add(String key, int slot) {
+            int length = key.length();
+            int node = 0;
+            for (int i = 0; i < length; ++i) {
+                char c = key.charAt(mReversed ? length - 1 - i : i);
+                Map<Character, Integer> children = mChildren.get(node);
+                if (children == null) {
+                    children = new HashMap<>(4);
+                    mChildren.set(node, children);
+                }
+                Integer child = children.get(c);
+                if (child == null) {
+                    child = newNode();
+                    children.put(c, child);
+                }
+                node = child;
+            }
+
+            ArrayList<Integer> slots = mNodeSlots.get(node);
+            if (slots == null) {
+                slots = new ArrayList<>(1);
+                mNodeSlots.set(node, slots);
+            }
+            slots.add(slot);
+            mSlotCount++;
+        }
+
+        public boolean isEmpty() {
+            return mSlotCount == 0;
+        }
+
+        public Trie build() {
+            return new Trie(this);
+        }
+    }
+
+    public static class Builder {
+        private final HashMap<String, int[]> mEqualsIgnoreCase = new HashMap<>();
+        private final HashMap<String, int[]> mEqualsCaseSensitive = new HashMap<>();
+        private final TrieBuilder mPrefixIgnoreCase = new TrieBuilder(false, true);
+        private final TrieBuilder mPrefixCaseSensitive = new TrieBuilder(false, false);
+        private final TrieBuilder mSuffixIgnoreCase = new TrieBuilder(true, true);
+        private final TrieBuilder mSuffixCaseSensitive = new TrieBuilder(true, false);
+        private final PhoneNumberIndex.Builder mNumbers = new PhoneNumberIndex.Builder();
+        private int mSize;
+
+        public Builder add(SmsFilterMode mode, String pattern, boolean caseSensitive, int slot) {
+            // Case-insensitive keys are folded up front, and the
+            // sender is folded the same way when looking them up.
+            String key = caseSensitive ? pattern : StringUtils.foldCase(pattern);
+            switch (mode) {
+            case PREFIX:
+                (caseSensitive ? mPrefixCaseSensitive : mPrefixIgnoreCase).add(key, slot);
+                break;
+            case SUFFIX:
+                (caseSensitive ? mSuffixCaseSensitive : mSuffixIgnoreCase).add(key, slot);
+                break;
+            case EQUALS:
+                addEquals(caseSensitive ? mEqualsCaseSensitive : mEqualsIgnoreCase, key, slot);
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot index mode: " + mode);
+            }
+            mSize++;
+            return this;
+        }
+
+        public Builder addNumber(PhoneNumberKey number, int slot) {
+            mNumbers.add(number, slot);
+            mSize++;
+            return this;
+        }
+
+        private static void addEquals(HashMap<String, int[]> map, String key, int slot) {
+            int[] slots = map.get(key);
+            if (slots == null) {
+                slots = new int[] {slot};
+            } else {
+                slots = Arrays.copyOf(slots, slots.length + 1);
+                slots[slots.length - 1] = slot;
+            }
+            map.put(key, slots);
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public SenderIndex build() {
+            return new SenderIndex(this);
+        }
+    }
+
+    private final HashMap<String, int[]> mEqualsIgnoreCase;
+    private final HashMap<String, int[]> mEqualsCaseSensitive;
+    private final Trie[] mTries;
+    private final PhoneNumberIndex mNumbers;
+
+    private SenderIndex(Builder builder) {
+        mEqualsIgnoreCase = builder.mEqualsIgnoreCase.isEmpty() ? null : builder.mEqualsIgnoreCase;
+        mEqualsCaseSensitive = builder.mEqualsCaseSensitive.isEmpty() ? null : builder.mEqualsCaseSensitive;
+        ArrayList<Trie> tries = new ArrayList<>(4);
+        for (TrieBuilder trieBuilder : new TrieBuilder[] {
+            builder.mPrefixIgnoreCase,
+            builder.mPrefixCaseSensitive,
+            builder.mSuffixIgnoreCase,
+            builder.mSuffixCaseSensitive,
+        }) {
+            if (!trieBuilder.isEmpty()) {
+                tries.add(trieBuilder.build());
+            }
+        }
+        mTries = tries.toArray(new Trie[tries.size()]);
+        mNumbers = builder.mNumbers.size() > 0 ? builder.mNumbers.build() : null;
+    }
+
+    public static boolean canIndex(SmsFilterMode mode) {
+        return mode == SmsFilterMode.PREFIX ||
+               mode == SmsFilterMode.SUFFIX ||
+               mode == SmsFilterMode.EQUALS ||
+               mode == SmsFilterMode.NUMBER;
+    }
+
+    public void match(SmsMatchContext context, BitSet hits) {
+        if (mEqualsCaseSensitive != null) {
+            setAll(mEqualsCaseSensitive.get(context.getSender()), hits);
+        }
+        if (mEqualsIgnoreCase != null) {
+            setAll(mEqualsIgnoreCase.get(context.getFoldedSender()), hits);
+        }
+        for (Trie trie : mTries) {
+            trie.match(context, hits);
+        }
+        if (mNumbers != null) {
+            PhoneNumberKey number = context.getSenderNumber();
+            if (number != null) {
+                mNumbers.match(number, hits);
+            }
+        }
+    }
+
+    private static void setAll(int[] slots, BitSet hits) {
+        if (slots != null) {
+            for (int slot : slots) {
+                hits.set(slot);
+            }
+        }
+    }
+}
@@ -1,39 +1,71 @@
 package com.crossbowffs.nekosms.filters;
 
 import com.crossbowffs.nekosms.data.*;
+import android.util.Log;
 import com.crossbowffs.nekosms.utils.Xlog;
 
 public class SmsFilter {
+    private final long mId;
     private final SmsFilterAction mAction;
     private final SmsFilterPattern mSenderPattern;
     private final SmsFilterPattern mBodyPattern;
+    private final SmsFilterStats mStats;
 
     public SmsFilter(SmsFilterData data) {
+        this(data, null);
+    }
+
+    /* package */ SmsFilter(SmsFilterData data, SmsFilterStats stats) {
+        // A rule that replaces an older version of itself takes over
+        // its stats, so they survive until the next flush.
+        mStats = (stats != null) ? stats : new SmsFilterStats();
+        mId = data.getId();
         mAction = data.getAction();
         mSenderPattern = createPattern(data.getSenderPattern());
         mBodyPattern = createPattern(data.getBodyPattern());
     }
 
+    public long getId() {
+        return mId;
+    }
+
     public SmsFilterAction getAction() {
         return mAction;
     }
 
-    public boolean match(String sender, String body) {
+    /* package */ SmsFilterPattern getSenderPattern() {
+        return mSenderPattern;
+    }
+
+    /* package */ SmsFilterPattern getBodyPattern() {
+        return mBodyPattern;
+    }
+
+    /* package */ SmsFilterStats getStats() {
+        return mStats;
+    }
+
+    public boolean match(SmsMatchContext context) {
         if (mSenderPattern == null && mBodyPattern == null) {
             Xlog.w("No sender or body pattern, ignoring");
             return false;
         }
-        Xlog.v("Action: %s", getAction().name());
+        boolean verbose = Xlog.isLoggable(Log.VERBOSE);
+        if (verbose) {
+            Xlog.v("Action: %s", getAction().name());
+        }
         boolean matches = true;
         if (mSenderPattern != null) {
             mSenderPattern.printToLog();
-            matches = mSenderPattern.match(sender, body);
+            matches = mSenderPattern.match(context);
         }
         if (mBodyPattern != null) {
             mBodyPattern.printToLog();
-            matches = matches && mBodyPattern.match(sender, body);
+            matches = matches && mBodyPattern.match(context);
+        }
+        if (verbose) {
+            Xlog.v("Matches: %s", matches);
         }
-        Xlog.v("Matches: %s", matches);
         return matches;
     }
 
@@ -50,6 +82,8 @@ public class SmsFilter {
         case SUFFIX:
         case EQUALS:
             return new StringFilterPattern(data);
+        case NUMBER:
+            return new NumberFilterPattern(data);
         default:
             throw new IllegalArgumentException("Invalid filter mode: " + data.getMode());
         }
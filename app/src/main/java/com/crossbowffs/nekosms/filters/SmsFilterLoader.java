@@ -4,77 +4,530 @@ import android.content.*;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import com.crossbowffs.nekosms.BuildConfig;
+import com.crossbowffs.nekosms.consts.BroadcastConsts;
+import com.crossbowffs.nekosms.data.SmsDecisionReason;
 import com.crossbowffs.nekosms.data.SmsFilterAction;
 import com.crossbowffs.nekosms.data.SmsFilterData;
+import com.crossbowffs.nekosms.data.SmsFilterStatsData;
+import com.crossbowffs.nekosms.data.SmsNumberListData;
+import com.crossbowffs.nekosms.loader.DecisionTraceLoader;
+import com.crossbowffs.nekosms.loader.FilterRuleBlob;
 import com.crossbowffs.nekosms.loader.FilterRuleLoader;
+import com.crossbowffs.nekosms.loader.FilterStatsLoader;
+import com.crossbowffs.nekosms.loader.NumberListLoader;
 import com.crossbowffs.nekosms.provider.DatabaseContract;
 import com.crossbowffs.nekosms.utils.Xlog;
 import com.crossbowffs.nekosms.widget.CursorWrapper;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class SmsFilterLoader {
     private static final String NEKOSMS_PACKAGE = BuildConfig.APPLICATION_ID;
 
+    // Whether to merge compatible regex rules into a single pattern per
+    // field. java.util.regex still tries every alternative at every
+    // position, so this saves no scanning work, only the per-pattern
+    // Matcher overhead; RegexUnionBenchmark found it slower than
+    // separate patterns at every rule count, so it is off by default.
+    private static final boolean MERGE_REGEX_PATTERNS = false;
+
+    // Whether to check the rules against the sender first, and only
+    // look at the body if a rule that could still match needs it.
+    // Messages decided by their sender alone (e.g. a sender that only
+    // matches sender rules, or none at all) then never need their
+    // body assembled. The result is the same either way.
+    private static final boolean STAGED_MATCHING = true;
+
+    // Whether to rebuild the filters on a background thread as soon as
+    // the database changes, instead of on the next incoming message.
+    // The old filters keep being used until the new ones are ready.
+    private static final boolean BACKGROUND_RELOAD = true;
+
+    // How long to wait for more changes before reloading in the
+    // background, so that e.g. importing a backup only reloads once.
+    private static final long BACKGROUND_RELOAD_DELAY_MS = 250;
+
+    // How often to write per-filter match stats to the database.
+    // Stats that have not been written yet are lost if the phone
+    // process dies, which is an acceptable tradeoff. They are kept
+    // when the filters are reloaded (see getUnflushedStats()).
+    private static final long STATS_FLUSH_DELAY_MS = 60 * 1000;
+
+    // Target false positive rate of the Bloom filter in front of the
+    // number lists. Lower rates skip more list lookups for senders
+    // that aren't listed, but need more memory (about 1.2 bytes per
+    // number at 1%, and another 0.6 bytes per 10x lower rate).
+    private static final double NUMBER_LIST_FALSE_POSITIVE_RATE = 0.01;
+
+    // How many of the most recent filtering decisions to keep for
+    // the decision trace screen in the app (about 40 bytes each).
+    private static final int DECISION_TRACE_SIZE = 256;
+
     private final Context mContext;
+    private final HandlerThread mWorkerThread;
+    private final Handler mWorkerHandler;
+    private final Runnable mReloadRunnable;
+    private final Runnable mFlushStatsRunnable;
+    private final Runnable mReloadNumberListsRunnable;
+    private final AtomicBoolean mFlushStatsScheduled = new AtomicBoolean();
     private final ContentObserver mContentObserver;
+    private final ContentObserver mNumberListObserver;
     private final BroadcastReceiver mBroadcastReceiver;
-    private List<SmsFilter> mCachedFilters;
+    private final BroadcastReceiver mDumpTraceReceiver;
+    private final DecisionTrace mDecisionTrace = new DecisionTrace(DECISION_TRACE_SIZE);
+
+    // The compiled filters are immutable once built, and are swapped
+    // in as a whole, so reading them on the SMS path needs no locking.
+    // The locks below only guard reloading and the dirty state.
+    private final AtomicReference<SmsFilterSet> mCachedFilters = new AtomicReference<>();
+    private final Object mLoadLock = new Object();
+    private final HashSet<Long> mDirtyFilterIds = new HashSet<>();
+    private TreeMap<Long, SmsFilter> mLoadedFilters;
+    private int mReloadCount;
+
+    // The most recently built filters, even if they were not cached.
+    // Their stats are the ones that have not been written yet, since
+    // every rebuild hands the stats of each rule over to the new one.
+    private final AtomicReference<SmsFilterSet> mStatsFilters = new AtomicReference<>();
+
+    // Number lists are loaded separately from the rules, since they
+    // are much larger and change much less often. Each one is a single
+    // sorted array, so they're never patched, only reloaded as a whole.
+    private final AtomicReference<SmsNumberListSet> mCachedNumberLists = new AtomicReference<>();
+    private final Object mNumberListLoadLock = new Object();
+    private final AtomicInteger mNumberListReloadCount = new AtomicInteger();
 
     public SmsFilterLoader(Context context) {
         mContext = context;
+        mWorkerThread = new HandlerThread("NekoSMS-FilterLoader", Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+        mReloadRunnable = new Runnable() {
+            @Override
+            public void run() {
+                reloadFilters();
+            }
+        };
+        mFlushStatsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flushStats();
+            }
+        };
+        mReloadNumberListsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                reloadNumberLists();
+            }
+        };
         mContentObserver = registerContentObserver();
+        mNumberListObserver = registerNumberListObserver();
         mBroadcastReceiver = registerBroadcastReceiver();
+        mDumpTraceReceiver = registerDumpTraceReceiver();
+        scheduleReload();
+        scheduleReloadNumberLists();
     }
 
     public void close() {
         unregisterContentObserver(mContentObserver);
+        unregisterContentObserver(mNumberListObserver);
         unregisterBroadcastReceiver(mBroadcastReceiver);
-        invalidateCache();
+        unregisterBroadcastReceiver(mDumpTraceReceiver);
+        mWorkerHandler.removeCallbacks(mReloadRunnable);
+        mWorkerHandler.removeCallbacks(mFlushStatsRunnable);
+        mWorkerHandler.removeCallbacks(mReloadNumberListsRunnable);
+        mWorkerThread.quit();
+        resetCache();
     }
 
-    public boolean shouldBlockMessage(String sender, String body) {
-        List<SmsFilter> filters = getFilters();
+    public DecisionTrace getDecisionTrace() {
+        return mDecisionTrace;
+    }
+
+    public boolean shouldBlockMessage(SmsMatchContext context) {
+        long startTime = System.nanoTime();
+        SmsFilterSet filters = getFilters();
         if (filters == null) {
             Xlog.i("Allowing message (filters failed to load)");
-            return false;
-        }
-
-        // Filters are already sorted whitelist first,
-        // so we can just return on the first match.
-        for (SmsFilter filter : filters) {
-            if (filter.match(sender, body)) {
-                switch (filter.getAction()) {
-                case ALLOW:
-                    Xlog.i("Allowing message (matched whitelist)");
-                    return false;
-                case BLOCK:
-                    Xlog.i("Blocking message (matched blacklist)");
-                    return true;
-                }
+            return recordDecision(context, SmsDecisionReason.FILTERS_FAILED, -1, startTime);
+        }
+
+        // The number lists are searched once up front. A whitelist
+        // list match takes priority over all rules, while a blacklist
+        // list match only applies if no rule matched.
+        SmsNumberList numberList = getNumberLists().match(context);
+        if (numberList != null && numberList.getAction() == SmsFilterAction.ALLOW) {
+            Xlog.i("Allowing message (matched whitelist number list %d)", numberList.getId());
+            return recordDecision(context, SmsDecisionReason.NUMBER_LIST_WHITELIST, numberList.getId(), startTime);
+        }
+
+        SmsFilter filter = STAGED_MATCHING ? filters.matchStaged(context) : filters.match(context);
+        scheduleFlushStats();
+        if (filter != null) {
+            filter.getStats().addHit(System.currentTimeMillis());
+            switch (filter.getAction()) {
+            case ALLOW:
+                Xlog.i("Allowing message (matched whitelist)");
+                return recordDecision(context, SmsDecisionReason.WHITELIST_RULE, filter.getId(), startTime);
+            case BLOCK:
+                Xlog.i("Blocking message (matched blacklist)");
+                return recordDecision(context, SmsDecisionReason.BLACKLIST_RULE, filter.getId(), startTime);
             }
         }
 
+        if (numberList != null && numberList.getAction() == SmsFilterAction.BLOCK) {
+            Xlog.i("Blocking message (matched blacklist number list %d)", numberList.getId());
+            return recordDecision(context, SmsDecisionReason.NUMBER_LIST_BLACKLIST, numberList.getId(), startTime);
+        }
+
         Xlog.i("Allowing message (did not match any rules)");
-        return false;
+        return recordDecision(context, SmsDecisionReason.NO_MATCH, -1, startTime);
+    }
+
+    private boolean recordDecision(SmsMatchContext context, SmsDecisionReason reason, long id, long startTime) {
+        mDecisionTrace.record(context, reason, id, System.nanoTime() - startTime);
+        return reason.isBlocked();
+    }
+
+    private SmsNumberListSet getNumberLists() {
+        SmsNumberListSet numberLists = mCachedNumberLists.get();
+        if (numberLists == null) {
+            synchronized (mNumberListLoadLock) {
+                numberLists = mCachedNumberLists.get();
+                if (numberLists == null) {
+                    numberLists = loadNumberLists();
+                }
+            }
+        }
+        return numberLists;
+    }
+
+    private void reloadNumberLists() {
+        Xlog.i("Reloading number lists in background");
+        try {
+            synchronized (mNumberListLoadLock) {
+                loadNumberLists();
+            }
+        } catch (Exception e) {
+            Xlog.e("Failed to reload number lists", e);
+        }
     }
 
-    private List<SmsFilter> getFilters() {
-        List<SmsFilter> filters = mCachedFilters;
+    private void scheduleReloadNumberLists() {
+        if (BACKGROUND_RELOAD) {
+            mWorkerHandler.removeCallbacks(mReloadNumberListsRunnable);
+            mWorkerHandler.postDelayed(mReloadNumberListsRunnable, BACKGROUND_RELOAD_DELAY_MS);
+        }
+    }
+
+    private void invalidateNumberLists() {
+        mNumberListReloadCount.incrementAndGet();
+        if (!BACKGROUND_RELOAD) {
+            mCachedNumberLists.set(null);
+        }
+        scheduleReloadNumberLists();
+    }
+
+    private SmsNumberListSet loadNumberLists() {
+        // Lists that fail to load are skipped instead of failing
+        // everything, so one bad file only disables that list. If
+        // the lists can't be queried at all (e.g. the provider is
+        // not available before the first unlock), the message is
+        // filtered without them, but nothing is cached, so the next
+        // message tries again, like loadFilters() does for the rules.
+        int reloadCount = mNumberListReloadCount.get();
+        ArrayList<SmsNumberList> numberLists = new ArrayList<>();
+        try (CursorWrapper<SmsNumberListData> cursor = NumberListLoader.get().queryAll(mContext)) {
+            if (cursor == null) {
+                Xlog.e("Failed to load number lists (queryAll returned null)");
+                return new SmsNumberListSet(new SmsNumberList[0], NUMBER_LIST_FALSE_POSITIVE_RATE);
+            }
+            SmsNumberListData data = new SmsNumberListData();
+            while (cursor.moveToNext()) {
+                try {
+                    data = cursor.get(data);
+                    // Still being imported, the count is set last
+                    if (data.getNumberCount() == 0) {
+                        continue;
+                    }
+                    PhoneNumberSet numbers = NumberListLoader.get().queryNumbers(mContext, data.getId());
+                    numberLists.add(new SmsNumberList(data.getId(), data.getAction(), data.getName(), numbers));
+                    Xlog.i("Loaded number list %d with %d numbers", data.getId(), numbers.size());
+                } catch (Exception e) {
+                    Xlog.e("Failed to load number list", e);
+                }
+            }
+        } catch (Exception e) {
+            Xlog.e("Failed to load number lists", e);
+            return new SmsNumberListSet(new SmsNumberList[0], NUMBER_LIST_FALSE_POSITIVE_RATE);
+        }
+
+        SmsNumberListSet result = new SmsNumberListSet(
+            numberLists.toArray(new SmsNumberList[numberLists.size()]),
+            NUMBER_LIST_FALSE_POSITIVE_RATE);
+        if (reloadCount == mNumberListReloadCount.get()) {
+            mCachedNumberLists.set(result);
+        }
+        return result;
+    }
+
+    private SmsFilterSet getFilters() {
+        SmsFilterSet filters = mCachedFilters.get();
         if (filters == null) {
-            Xlog.i("Cached SMS filters dirty, loading from database");
-            filters = mCachedFilters = loadFilters();
+            // Only one thread reloads at a time, the others wait
+            // and reuse its result.
+            synchronized (mLoadLock) {
+                filters = mCachedFilters.get();
+                if (filters == null) {
+                    filters = loadFilters();
+                }
+            }
         }
         return filters;
     }
 
+    private void reloadFilters() {
+        // Any exception thrown here would take down the phone
+        // process, so just log it; the next message will try
+        // again if there are no usable filters.
+        Xlog.i("Reloading SMS filters in background");
+        try {
+            synchronized (mLoadLock) {
+                loadFilters();
+            }
+        } catch (Exception e) {
+            Xlog.e("Failed to reload SMS filters", e);
+        }
+    }
+
+    private void scheduleReload() {
+        if (BACKGROUND_RELOAD) {
+            mWorkerHandler.removeCallbacks(mReloadRunnable);
+            mWorkerHandler.postDelayed(mReloadRunnable, BACKGROUND_RELOAD_DELAY_MS);
+        }
+    }
+
+    private void scheduleFlushStats() {
+        if (mFlushStatsScheduled.compareAndSet(false, true)) {
+            mWorkerHandler.postDelayed(mFlushStatsRunnable, STATS_FLUSH_DELAY_MS);
+        }
+    }
+
+    private void flushStats() {
+        mFlushStatsScheduled.set(false);
+        SmsNumberListSet numberLists = mCachedNumberLists.get();
+        if (numberLists != null) {
+            numberLists.printStatsToLog();
+        }
+
+        SmsFilterSet filters = mStatsFilters.get();
+        if (filters == null) {
+            return;
+        }
+
+        ArrayList<SmsFilterStatsData> stats = new ArrayList<>();
+        for (int i = 0; i < filters.size(); ++i) {
+            SmsFilter filter = filters.get(i);
+            SmsFilterStatsData data = filter.getStats().drain(filter.getId());
+            if (data != null) {
+                stats.add(data);
+            }
+        }
+
+        if (stats.isEmpty()) {
+            return;
+        }
+
+        Xlog.i("Writing stats for %d filters", stats.size());
+        try {
+            FilterStatsLoader.get().addStats(mContext, stats);
+        } catch (Exception e) {
+            Xlog.e("Failed to write filter stats", e);
+        }
+    }
+
+    private void resetCache() {
+        // Unlike invalidateCache(), this makes sure the current
+        // filters are never used again, even while reloading.
+        synchronized (mDirtyFilterIds) {
+            mDirtyFilterIds.clear();
+            mLoadedFilters = null;
+            mCachedFilters.set(null);
+            mStatsFilters.set(null);
+            mReloadCount++;
+        }
+        mNumberListReloadCount.incrementAndGet();
+        mCachedNumberLists.set(null);
+    }
+
     private void invalidateCache() {
-        mCachedFilters = null;
+        synchronized (mDirtyFilterIds) {
+            mDirtyFilterIds.clear();
+            mLoadedFilters = null;
+            if (!BACKGROUND_RELOAD) {
+                mCachedFilters.set(null);
+            }
+            mReloadCount++;
+        }
+        scheduleReload();
     }
 
-    private List<SmsFilter> loadFilters() {
+    private void invalidateFilter(long id) {
+        synchronized (mDirtyFilterIds) {
+            mDirtyFilterIds.add(id);
+            if (!BACKGROUND_RELOAD) {
+                mCachedFilters.set(null);
+            }
+        }
+        scheduleReload();
+    }
+
+    private SmsFilterSet loadFilters() {
+        // The loaded filters are copied before being patched, so that
+        // a failed reload cannot leave them half updated.
+        TreeMap<Long, SmsFilter> loadedFilters;
+        Long[] dirtyIds;
+        int reloadCount;
+        synchronized (mDirtyFilterIds) {
+            loadedFilters = (mLoadedFilters == null) ? null : new TreeMap<>(mLoadedFilters);
+            dirtyIds = mDirtyFilterIds.toArray(new Long[mDirtyFilterIds.size()]);
+            mDirtyFilterIds.clear();
+            reloadCount = mReloadCount;
+        }
+
+        Map<Long, SmsFilterStats> stats = getUnflushedStats();
+        if (loadedFilters == null) {
+            Xlog.i("Cached SMS filters dirty, loading from database");
+            loadedFilters = queryAllFilters(stats);
+            if (loadedFilters == null) {
+                return null;
+            }
+        } else {
+            // Only the rules that actually changed are reloaded. Every
+            // other rule keeps its already compiled patterns, so only
+            // the shared automata need to be rebuilt.
+            Xlog.i("Cached SMS filters dirty, reloading %d changed filters", dirtyIds.length);
+            try {
+                for (Long id : dirtyIds) {
+                    reloadFilter(loadedFilters, id, stats);
+                }
+            } catch (Exception e) {
+                Xlog.e("Failed to reload changed SMS filters, loading from database", e);
+                loadedFilters = queryAllFilters(stats);
+                if (loadedFilters == null) {
+                    return null;
+                }
+            }
+        }
+
+        // The rule set takes care of putting whitelist rules
+        // before blacklist rules, so order does not matter here.
+        List<SmsFilter> filters = new ArrayList<>(loadedFilters.values());
+        SmsFilterSet filterSet = new SmsFilterSet(filters, MERGE_REGEX_PATTERNS);
+        mStatsFilters.set(filterSet);
+
+        // If the database changed again while we were loading, the
+        // result is still used for this message, but not cached.
+        // In background mode, another reload is already scheduled in
+        // that case, and a partially updated rule set is still better
+        // than the one we currently have.
+        synchronized (mDirtyFilterIds) {
+            if (reloadCount == mReloadCount) {
+                mLoadedFilters = loadedFilters;
+                if (BACKGROUND_RELOAD || mDirtyFilterIds.isEmpty()) {
+                    mCachedFilters.set(filterSet);
+                }
+            }
+        }
+        return filterSet;
+    }
+
+    private HashMap<Long, SmsFilterStats> getUnflushedStats() {
+        // Stats are kept on the filters, so rebuilt filters take over
+        // the stats of the ones they replace, by rule ID. Otherwise,
+        // everything since the last flush would be lost on reload.
+        // Filters that are reused as is already keep their stats.
+        SmsFilterSet filters = mStatsFilters.get();
+        HashMap<Long, SmsFilterStats> stats = new HashMap<>();
+        if (filters != null) {
+            for (int i = 0; i < filters.size(); ++i) {
+                SmsFilter filter = filters.get(i);
+                stats.put(filter.getId(), filter.getStats());
+            }
+        }
+        return stats;
+    }
+
+    private void reloadFilter(TreeMap<Long, SmsFilter> loadedFilters, long id, Map<Long, SmsFilterStats> stats) {
+        SmsFilterData data = FilterRuleLoader.get().query(mContext, id);
+        if (data == null) {
+            Xlog.i("Removed SMS filter %d", id);
+            loadedFilters.remove(id);
+            return;
+        }
+
+        try {
+            loadedFilters.put(id, new SmsFilter(data, stats.get(id)));
+            Xlog.i("Reloaded SMS filter %d", id);
+        } catch (Exception e) {
+            Xlog.e("Failed to load SMS filter", e);
+            loadedFilters.remove(id);
+        }
+    }
+
+    private TreeMap<Long, SmsFilter> queryAllFilters(Map<Long, SmsFilterStats> stats) {
+        TreeMap<Long, SmsFilter> filters = readFilterBlob(stats);
+        if (filters != null) {
+            return filters;
+        }
+        return queryFilterCursor(stats);
+    }
+
+    private TreeMap<Long, SmsFilter> readFilterBlob(Map<Long, SmsFilterStats> stats) {
+        // Reading all rules from a single file is much cheaper than
+        // going through a cursor, especially for large rule sets. If
+        // the file can't be used for whatever reason (e.g. the app is
+        // a different version than the module), use the cursor instead.
+        List<SmsFilterData> filterDatas;
+        try (InputStream in = mContext.getContentResolver().openInputStream(DatabaseContract.FilterRules.BLOB_URI)) {
+            if (in == null) {
+                return null;
+            }
+            filterDatas = FilterRuleBlob.read(in);
+        } catch (Exception e) {
+            Xlog.w("Failed to read filter rule blob", e);
+            return null;
+        }
+
+        if (filterDatas == null) {
+            return null;
+        }
+
+        Xlog.i("Loaded %d filters from blob", filterDatas.size());
+        TreeMap<Long, SmsFilter> filters = new TreeMap<>();
+        for (SmsFilterData data : filterDatas) {
+            try {
+                filters.put(data.getId(), new SmsFilter(data, stats.get(data.getId())));
+            } catch (Exception e) {
+                Xlog.e("Failed to load SMS filter", e);
+            }
+        }
+        return filters;
+    }
+
+    private TreeMap<Long, SmsFilter> queryFilterCursor(Map<Long, SmsFilterStats> stats) {
         try (CursorWrapper<SmsFilterData> filterCursor = FilterRuleLoader.get().queryAll(mContext)) {
             if (filterCursor == null) {
                 // This might occur if the app has been uninstalled (removing the DB),
@@ -87,47 +540,43 @@ public class SmsFilterLoader {
             int count = filterCursor.getCount();
             Xlog.i("filterCursor.getCount() = %d", count);
 
-            // It's better to just over-reserve since we expect most
-            // rules to go into the blacklist, but all rules will
-            // be merged into the whitelist list in the end (with
-            // whitelist rules coming first).
-            ArrayList<SmsFilter> whitelist = new ArrayList<>(count);
-            ArrayList<SmsFilter> blacklist = new ArrayList<>(count);
-
+            TreeMap<Long, SmsFilter> filters = new TreeMap<>();
             SmsFilterData data = new SmsFilterData();
             while (filterCursor.moveToNext()) {
-                SmsFilter filter;
                 try {
                     data = filterCursor.get(data);
-                    filter = new SmsFilter(data);
+                    filters.put(data.getId(), new SmsFilter(data, stats.get(data.getId())));
                 } catch (Exception e) {
                     Xlog.e("Failed to load SMS filter", e);
-                    continue;
-                }
-
-                if (data.getAction() == SmsFilterAction.BLOCK) {
-                    blacklist.add(filter);
-                } else if (data.getAction() == SmsFilterAction.ALLOW) {
-                    whitelist.add(filter);
                 }
             }
-
-            Xlog.i("Loaded %d blacklist filters", blacklist.size());
-            Xlog.i("Loaded %d whitelist filters", whitelist.size());
-            whitelist.addAll(blacklist);
-            whitelist.trimToSize();
-            return whitelist;
+            return filters;
         }
     }
 
     private ContentObserver registerContentObserver() {
         Xlog.i("Registering SMS filter content observer");
 
-        ContentObserver contentObserver = new ContentObserver(new Handler()) {
+        Handler handler = BACKGROUND_RELOAD ? mWorkerHandler : new Handler();
+        ContentObserver contentObserver = new ContentObserver(handler) {
             @Override
             public void onChange(boolean selfChange) {
-                Xlog.i("SMS filter database updated, marking cache as dirty");
-                invalidateCache();
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                // The provider notifies with the item URI when a single
+                // rule is inserted, updated, or deleted. Anything else
+                // (e.g. restoring a backup) requires a full reload.
+                long id = getFilterId(uri);
+                if (id >= 0) {
+                    Xlog.i("SMS filter %d updated, marking as dirty", id);
+                    invalidateFilter(id);
+                } else {
+                    Xlog.i("SMS filter database updated, marking cache as dirty");
+                    invalidateCache();
+                }
             }
         };
 
@@ -136,6 +585,40 @@ public class SmsFilterLoader {
         return contentObserver;
     }
 
+    private ContentObserver registerNumberListObserver() {
+        Xlog.i("Registering number list content observer");
+
+        Handler handler = BACKGROUND_RELOAD ? mWorkerHandler : new Handler();
+        ContentObserver contentObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                Xlog.i("Number lists updated, marking as dirty");
+                invalidateNumberLists();
+            }
+        };
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(DatabaseContract.NumberLists.CONTENT_URI, true, contentObserver);
+        return contentObserver;
+    }
+
+    private static long getFilterId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !DatabaseContract.FilterRules.TABLE.equals(segments.get(0))) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private BroadcastReceiver registerBroadcastReceiver() {
         // It is necessary to listen for these events because uninstalling
         // an app or clearing its data does not notify registered ContentObservers.
@@ -165,12 +648,14 @@ public class SmsFilterLoader {
                     return;
                 }
 
+                // The old filters must not be used anymore, so these
+                // reset the cache immediately, even in background mode.
                 if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
                     Xlog.i("App uninstalled, resetting filters");
-                    invalidateCache();
+                    resetCache();
                 } else if (Intent.ACTION_PACKAGE_DATA_CLEARED.equals(action)) {
                     Xlog.i("App data cleared, resetting filters");
-                    invalidateCache();
+                    resetCache();
                 }
             }
         };
@@ -183,6 +668,33 @@ public class SmsFilterLoader {
         return receiver;
     }
 
+    private BroadcastReceiver registerDumpTraceReceiver() {
+        // The phone process has no provider of its own, so the app
+        // asks for the decision trace with a broadcast, and we send
+        // it to the app's provider in response. Only apps signed with
+        // the same key as ours hold the permission needed to send it.
+        Xlog.i("Registering decision trace receiver");
+
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (!BroadcastConsts.ACTION_DUMP_DECISION_TRACE.equals(intent.getAction())) {
+                    return;
+                }
+
+                try {
+                    DecisionTraceLoader.putTrace(mContext, mDecisionTrace.toByteArray());
+                } catch (Exception e) {
+                    Xlog.e("Failed to send decision trace", e);
+                }
+            }
+        };
+
+        IntentFilter filter = new IntentFilter(BroadcastConsts.ACTION_DUMP_DECISION_TRACE);
+        mContext.registerReceiver(receiver, filter, BroadcastConsts.PERMISSION_DUMP_DECISION_TRACE, mWorkerHandler);
+        return receiver;
+    }
+
     private void unregisterContentObserver(ContentObserver observer) {
         mContext.getContentResolver().unregisterContentObserver(observer);
     }
@@ -1,5 +1,6 @@
 package com.crossbowffs.nekosms.filters;
 
+import android.util.Log;
 import com.crossbowffs.nekosms.data.SmsFilterField;
 import com.crossbowffs.nekosms.data.SmsFilterMode;
 import com.crossbowffs.nekosms.data.SmsFilterPatternData;
@@ -35,11 +36,14 @@ import com.crossbowffs.nekosms.utils.Xlog;
     }
 
     public void printToLog() {
+        if (!Xlog.isLoggable(Log.VERBOSE)) {
+            return;
+        }
         Xlog.v("Field: %s", getField().name());
         Xlog.v("Mode: %s", getMode().name());
         Xlog.v("Pattern: %s", getPattern());
         Xlog.v("Case sensitive: %s", isCaseSensitive());
     }
 
-    public abstract boolean match(String sender, String body);
+    public abstract boolean match(SmsMatchContext context);
 }
@@ -0,0 +1,404 @@
+package com.crossbowffs.nekosms.filters;
+
+import android.util.Log;
+import com.crossbowffs.nekosms.data.SmsFilterAction;
+import com.crossbowffs.nekosms.data.SmsFilterField;
+import com.crossbowffs.nekosms.utils.Xlog;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/* package */ class SmsFilterSet {
+    private final SmsFilter[] mFilters;
+    private final int[] mSenderSlots;
+    private final int[] mBodySlots;
+    private final int[] mSlotFilters;
+    private final BitSet mDirectFilters;
+    private final BitSet mUnindexedSenderFilters;
+    private final SenderIndex mSenderIndex;
+    private final AhoCorasickMatcher[] mSenderMatchers;
+    private final AhoCorasickMatcher[] mBodyMatchers;
+    private final AhoCorasickMatcher[] mSenderLiteralMatchers;
+    private final AhoCorasickMatcher[] mBodyLiteralMatchers;
+    private final RegexUnionMatcher[] mSenderRegexes;
+    private final RegexUnionMatcher[] mBodyRegexes;
+    private final BitSet mFallbackSlots;
+
+    public SmsFilterSet(List<SmsFilter> filters, boolean mergeRegexes) {
+        // Whitelist rules always take precedence over blacklist
+        // rules, so we put them first and can just return on
+        // the first match.
+        ArrayList<SmsFilter> ordered = new ArrayList<>(filters.size());
+        for (SmsFilter filter : filters) {
+            if (filter.getSenderPattern() == null && filter.getBodyPattern() == null) {
+                Xlog.w("No sender or body pattern, ignoring");
+            } else if (filter.getAction() == SmsFilterAction.ALLOW) {
+                ordered.add(filter);
+            }
+        }
+        int whitelistCount = ordered.size();
+        for (SmsFilter filter : filters) {
+            if (filter.getSenderPattern() == null && filter.getBodyPattern() == null) {
+                continue;
+            } else if (filter.getAction() == SmsFilterAction.BLOCK) {
+                ordered.add(filter);
+            }
+        }
+        Xlog.i("Compiling %d whitelist filters", whitelistCount);
+        Xlog.i("Compiling %d blacklist filters", ordered.size() - whitelistCount);
+
+        int count = ordered.size();
+        mFilters = ordered.toArray(new SmsFilter[count]);
+        mSenderSlots = new int[count];
+        mBodySlots = new int[count];
+        mDirectFilters = new BitSet(count);
+        mUnindexedSenderFilters = new BitSet(count);
+
+        // Every string pattern gets a slot in the per-message hit set.
+        // All patterns with the same field and case sensitivity are
+        // merged into one automaton, so each field is only scanned
+        // once or twice per message, regardless of the rule count.
+        // Regex patterns are still evaluated one at a time, but only
+        // for rules whose string patterns (if any) have already matched.
+        // Sender prefix/suffix/equals patterns (which are mostly phone
+        // numbers) go into a separate index instead, so looking them
+        // up only costs one walk over the sender; phone number patterns
+        // are looked up by their canonical form in a hash table. If enabled, regex
+        // patterns that can be safely combined are also merged into
+        // one alternation per field and case sensitivity, so they share
+        // a single Matcher (the engine still tries every alternative at
+        // every position, so the work grows with the rule count either
+        // way; see MERGE_REGEX_PATTERNS). Regex patterns with
+        // a required literal skip both of those: the literals go into
+        // their own automata, and the regex only runs if its literal
+        // was found.
+        SenderIndex.Builder senderIndexBuilder = new SenderIndex.Builder();
+        AhoCorasickMatcher.Builder[] senderBuilders = newBuilders();
+        AhoCorasickMatcher.Builder[] bodyBuilders = newBuilders();
+        RegexUnionMatcher.Builder[] senderRegexBuilders = mergeRegexes ? newRegexBuilders() : null;
+        RegexUnionMatcher.Builder[] bodyRegexBuilders = mergeRegexes ? newRegexBuilders() : null;
+        AhoCorasickMatcher.Builder[] senderLiteralBuilders = newBuilders();
+        AhoCorasickMatcher.Builder[] bodyLiteralBuilders = newBuilders();
+        int[] slotFilters = new int[count * 2];
+        int slotCount = 0;
+        for (int i = 0; i < count; ++i) {
+            SmsFilter filter = mFilters[i];
+            SmsFilterPattern senderPattern = filter.getSenderPattern();
+            int senderSlot;
+            if (senderPattern instanceof RegexFilterPattern) {
+                senderSlot = addRegexPattern(senderRegexBuilders, senderLiteralBuilders, (RegexFilterPattern)senderPattern, slotCount);
+            } else {
+                senderSlot = addSenderPattern(senderIndexBuilder, senderBuilders, senderPattern, slotCount);
+            }
+            if (senderSlot >= 0) {
+                slotFilters[slotCount++] = i;
+            }
+            SmsFilterPattern bodyPattern = filter.getBodyPattern();
+            int bodySlot;
+            if (bodyPattern instanceof RegexFilterPattern) {
+                bodySlot = addRegexPattern(bodyRegexBuilders, bodyLiteralBuilders, (RegexFilterPattern)bodyPattern, slotCount);
+            } else {
+                bodySlot = addPattern(bodyBuilders, bodyPattern, slotCount);
+            }
+            if (bodySlot >= 0) {
+                slotFilters[slotCount++] = i;
+            }
+            mSenderSlots[i] = senderSlot;
+            mBodySlots[i] = bodySlot;
+            if (senderSlot < 0 && bodySlot < 0) {
+                mDirectFilters.set(i);
+            }
+            if (senderSlot < 0) {
+                mUnindexedSenderFilters.set(i);
+            }
+        }
+
+        mSlotFilters = new int[slotCount];
+        System.arraycopy(slotFilters, 0, mSlotFilters, 0, slotCount);
+        mSenderIndex = senderIndexBuilder.size() > 0 ? senderIndexBuilder.build() : null;
+        mSenderMatchers = buildMatchers(senderBuilders);
+        mBodyMatchers = buildMatchers(bodyBuilders);
+        mSenderLiteralMatchers = buildMatchers(senderLiteralBuilders);
+        mBodyLiteralMatchers = buildMatchers(bodyLiteralBuilders);
+        mFallbackSlots = new BitSet(slotCount);
+        mSenderRegexes = buildRegexMatchers(senderRegexBuilders, mFallbackSlots);
+        mBodyRegexes = buildRegexMatchers(bodyRegexBuilders, mFallbackSlots);
+        Xlog.i("Compiled %d patterns into %d sender and %d body automata",
+            slotCount,
+            mSenderMatchers.length + mSenderRegexes.length + mSenderLiteralMatchers.length,
+            mBodyMatchers.length + mBodyRegexes.length + mBodyLiteralMatchers.length);
+    }
+
+    private static RegexUnionMatcher.Builder[] newRegexBuilders() {
+        return new RegexUnionMatcher.Builder[] {
+            new RegexUnionMatcher.Builder(Pattern.UNICODE_CASE | Pattern.CASE_INSENSITIVE),
+            new RegexUnionMatcher.Builder(Pattern.UNICODE_CASE),
+        };
+    }
+
+    private static RegexUnionMatcher[] buildRegexMatchers(RegexUnionMatcher.Builder[] builders, BitSet fallbackSlots) {
+        if (builders == null) {
+            return new RegexUnionMatcher[0];
+        }
+
+        ArrayList<RegexUnionMatcher> matchers = new ArrayList<>(builders.length);
+        for (RegexUnionMatcher.Builder builder : builders) {
+            if (builder.size() == 0) {
+                continue;
+            }
+
+            // If the merged pattern fails to compile for whatever
+            // reason, its members are just evaluated one by one.
+            RegexUnionMatcher matcher = builder.build();
+            if (matcher != null) {
+                matchers.add(matcher);
+            } else {
+                for (int slot : builder.getSlots()) {
+                    fallbackSlots.set(slot);
+                }
+            }
+        }
+        return matchers.toArray(new RegexUnionMatcher[matchers.size()]);
+    }
+
+    private static int addRegexPattern(RegexUnionMatcher.Builder[] builders, AhoCorasickMatcher.Builder[] literalBuilders, RegexFilterPattern pattern, int slot) {
+        String literal = pattern.getRequiredLiteral();
+        if (literal != null) {
+            literalBuilders[pattern.isRequiredLiteralIgnoreCase() ? 0 : 1].add(literal, AhoCorasickMatcher.ANCHOR_NONE, slot);
+            return slot;
+        }
+        if (builders == null || !pattern.isMergeable()) {
+            return -1;
+        }
+        builders[pattern.isCaseSensitive() ? 1 : 0].add(pattern.getRegex(), pattern.getGroupCount(), slot);
+        return slot;
+    }
+
+    private static AhoCorasickMatcher.Builder[] newBuilders() {
+        return new AhoCorasickMatcher.Builder[] {
+            new AhoCorasickMatcher.Builder(true),
+            new AhoCorasickMatcher.Builder(false),
+        };
+    }
+
+    private static AhoCorasickMatcher[] buildMatchers(AhoCorasickMatcher.Builder[] builders) {
+        ArrayList<AhoCorasickMatcher> matchers = new ArrayList<>(builders.length);
+        for (AhoCorasickMatcher.Builder builder : builders) {
+            if (builder.size() > 0) {
+                matchers.add(builder.build());
+            }
+        }
+        return matchers.toArray(new AhoCorasickMatcher[matchers.size()]);
+    }
+
+    private static int addSenderPattern(SenderIndex.Builder indexBuilder, AhoCorasickMatcher.Builder[] builders, SmsFilterPattern pattern, int slot) {
+        if (pattern instanceof NumberFilterPattern) {
+            PhoneNumberKey number = ((NumberFilterPattern)pattern).getNumber();
+            if (number == null) {
+                return -1;
+            }
+            indexBuilder.addNumber(number, slot);
+            return slot;
+        }
+
+        if (!(pattern instanceof StringFilterPattern) || !SenderIndex.canIndex(pattern.getMode())) {
+            return addPattern(builders, pattern, slot);
+        }
+
+        String key = ((StringFilterPattern)pattern).getNormalizedPattern();
+        if (key.isEmpty()) {
+            return -1;
+        }
+        indexBuilder.add(pattern.getMode(), key, pattern.isCaseSensitive(), slot);
+        return slot;
+    }
+
+    private static int addPattern(AhoCorasickMatcher.Builder[] builders, SmsFilterPattern pattern, int slot) {
+        if (!(pattern instanceof StringFilterPattern)) {
+            return -1;
+        }
+
+        int anchors;
+        switch (pattern.getMode()) {
+        case CONTAINS:
+            anchors = AhoCorasickMatcher.ANCHOR_NONE;
+            break;
+        case PREFIX:
+            anchors = AhoCorasickMatcher.ANCHOR_START;
+            break;
+        case SUFFIX:
+            anchors = AhoCorasickMatcher.ANCHOR_END;
+            break;
+        case EQUALS:
+            anchors = AhoCorasickMatcher.ANCHOR_START | AhoCorasickMatcher.ANCHOR_END;
+            break;
+        default:
+            throw new AssertionError("Invalid mode: " + pattern.getMode());
+        }
+
+        String needle = ((StringFilterPattern)pattern).getNormalizedPattern();
+        if (needle.isEmpty()) {
+            return -1;
+        }
+        builders[pattern.isCaseSensitive() ? 1 : 0].add(needle, anchors, slot);
+        return slot;
+    }
+
+    public int size() {
+        return mFilters.length;
+    }
+
+    public SmsFilter get(int index) {
+        return mFilters[index];
+    }
+
+    /**
+     * Same as {@link #match(SmsMatchContext)}, but tries to find the
+     * result from the sender alone first. The body is only read from
+     * the context if some rule that could match depends on it.
+     */
+    public SmsFilter matchStaged(SmsMatchContext context) {
+        BitSet hits = new BitSet(mSlotFilters.length);
+        BitSet pending = (BitSet)mFallbackSlots.clone();
+        matchSenderSlots(context, hits, pending);
+
+        // Rules are checked in the same order as in match(), until
+        // one matches on its sender alone, or one whose sender matches
+        // also has a body pattern. Rules whose sender pattern is indexed,
+        // but was not found, can't match. Rules without a sender pattern
+        // are in the unindexed set, and stop this right away.
+        BitSet candidates = (BitSet)mUnindexedSenderFilters.clone();
+        for (int slot = hits.nextSetBit(0); slot >= 0; slot = hits.nextSetBit(slot + 1)) {
+            candidates.set(mSlotFilters[slot]);
+        }
+        for (int slot = pending.nextSetBit(0); slot >= 0; slot = pending.nextSetBit(slot + 1)) {
+            candidates.set(mSlotFilters[slot]);
+        }
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            SmsFilter filter = mFilters[i];
+            long startTime = System.nanoTime();
+            boolean senderMatches = matchPattern(filter.getSenderPattern(), mSenderSlots[i], hits, pending, context);
+            long senderTime = System.nanoTime() - startTime;
+            if (!senderMatches) {
+                filter.getStats().addMatchTime(senderTime);
+                continue;
+            }
+
+            if (filter.getBodyPattern() == null) {
+                filter.getStats().addMatchTime(senderTime);
+                if (Xlog.isLoggable(Log.VERBOSE)) {
+                    Xlog.v("Action: %s", filter.getAction().name());
+                }
+                return filter;
+            }
+
+            // Every rule before this one is known not to match, so the
+            // rest of the rules are matched as usual, starting with it.
+            // The sender scans are already done and don't run again,
+            // and neither does this rule's sender pattern.
+            return matchBody(context, hits, pending, i, senderTime);
+        }
+
+        return null;
+    }
+
+    private void matchSenderSlots(SmsMatchContext context, BitSet hits, BitSet pending) {
+        if (mSenderIndex != null) {
+            mSenderIndex.match(context, hits);
+        }
+        for (AhoCorasickMatcher matcher : mSenderMatchers) {
+            matcher.match(context, SmsFilterField.SENDER, hits);
+        }
+        for (RegexUnionMatcher matcher : mSenderRegexes) {
+            matcher.match(context.getSender(), hits, pending);
+        }
+        for (AhoCorasickMatcher matcher : mSenderLiteralMatchers) {
+            matcher.match(context, SmsFilterField.SENDER, pending);
+        }
+    }
+
+    public SmsFilter match(SmsMatchContext context) {
+        BitSet hits = new BitSet(mSlotFilters.length);
+        BitSet pending = (BitSet)mFallbackSlots.clone();
+        matchSenderSlots(context, hits, pending);
+        return matchBody(context, hits, pending, 0, -1);
+    }
+
+    private SmsFilter matchBody(SmsMatchContext context, BitSet hits, BitSet pending, int firstIndex, long firstSenderTime) {
+        // Slots in the pending set could not be decided by the shared
+        // scans and must be evaluated individually. Regex patterns
+        // whose required literal was found are also pending; the rest
+        // are known not to match. The sender scans have already been
+        // done by the caller. Rules before the first index are known
+        // not to match, and are skipped. If the caller already found
+        // that the sender of the first rule matches, only its body is
+        // checked, and the time is added to the time the caller took,
+        // so that each rule is only timed once per message.
+        for (AhoCorasickMatcher matcher : mBodyMatchers) {
+            matcher.match(context, SmsFilterField.BODY, hits);
+        }
+        for (RegexUnionMatcher matcher : mBodyRegexes) {
+            matcher.match(context.getBody(), hits, pending);
+        }
+        for (AhoCorasickMatcher matcher : mBodyLiteralMatchers) {
+            matcher.match(context, SmsFilterField.BODY, pending);
+        }
+
+        // A rule can only match if at least one of its indexed
+        // patterns was found, or if it has no indexed patterns at all.
+        BitSet candidates = (BitSet)mDirectFilters.clone();
+        for (int slot = hits.nextSetBit(0); slot >= 0; slot = hits.nextSetBit(slot + 1)) {
+            candidates.set(mSlotFilters[slot]);
+        }
+        for (int slot = pending.nextSetBit(0); slot >= 0; slot = pending.nextSetBit(slot + 1)) {
+            candidates.set(mSlotFilters[slot]);
+        }
+
+        if (firstSenderTime >= 0 && !candidates.get(firstIndex)) {
+            mFilters[firstIndex].getStats().addMatchTime(firstSenderTime);
+        }
+
+        // Only the time spent on each rule individually is recorded;
+        // the shared scans above can't be attributed to a single rule.
+        for (int i = candidates.nextSetBit(firstIndex); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            SmsFilter filter = mFilters[i];
+            long startTime = System.nanoTime();
+            boolean matches;
+            if (i == firstIndex && firstSenderTime >= 0) {
+                startTime -= firstSenderTime;
+                matches = matchPattern(filter.getBodyPattern(), mBodySlots[i], hits, pending, context);
+                if (matches && Xlog.isLoggable(Log.VERBOSE)) {
+                    Xlog.v("Action: %s", filter.getAction().name());
+                }
+            } else if (mDirectFilters.get(i)) {
+                matches = filter.match(context);
+            } else {
+                matches = matchPattern(filter.getSenderPattern(), mSenderSlots[i], hits, pending, context) &&
+                          matchPattern(filter.getBodyPattern(), mBodySlots[i], hits, pending, context);
+                if (matches && Xlog.isLoggable(Log.VERBOSE)) {
+                    Xlog.v("Action: %s", filter.getAction().name());
+                }
+            }
+            filter.getStats().addMatchTime(System.nanoTime() - startTime);
+            if (matches) {
+                return filter;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean matchPattern(SmsFilterPattern pattern, int slot, BitSet hits, BitSet pending, SmsMatchContext context) {
+        if (pattern == null) {
+            return true;
+        } else if (slot >= 0 && !pending.get(slot)) {
+            return hits.get(slot);
+        } else {
+            pattern.printToLog();
+            return pattern.match(context);
+        }
+    }
+}
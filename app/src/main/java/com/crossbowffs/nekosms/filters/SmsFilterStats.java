@@ -0,0 +1,37 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterStatsData;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* package */ class SmsFilterStats {
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mLastHitTime = new AtomicLong();
+    private final AtomicLong mMatchTimeNanos = new AtomicLong();
+
+    public void addHit(long time) {
+        mHitCount.incrementAndGet();
+        mLastHitTime.set(time);
+    }
+
+    public void addMatchTime(long nanos) {
+        mMatchTimeNanos.addAndGet(nanos);
+    }
+
+    public SmsFilterStatsData drain(long id) {
+        // Returns the stats accumulated since the last call, or
+        // null if there are none. A hit racing with this may end
+        // up in the next batch, which is fine for our purposes.
+        long hitCount = mHitCount.getAndSet(0);
+        long lastHitTime = mLastHitTime.getAndSet(0);
+        long matchTimeNanos = mMatchTimeNanos.getAndSet(0);
+        if (hitCount == 0 && matchTimeNanos == 0) {
+            return null;
+        }
+        return new SmsFilterStatsData()
+            .setId(id)
+            .setHitCount(hitCount)
+            .setLastHitTime(lastHitTime)
+            .setMatchTimeNanos(matchTimeNanos);
+    }
+}
@@ -0,0 +1,132 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterField;
+import com.crossbowffs.nekosms.utils.StringUtils;
+
+public class SmsMatchContext {
+    public interface BodyLoader {
+        /**
+         * Builds the message body. Called at most once, the first
+         * time a pattern (or anything else) asks for the body.
+         */
+        String loadBody();
+    }
+
+    // Holds a message along with the derived forms that patterns
+    // match against. Each form is computed the first time a pattern
+    // asks for it, then shared by every other pattern. This is not
+    // thread safe, so each message should get its own context.
+    // The body itself can be loaded lazily as well, since assembling
+    // a long multipart message is wasted work if the sender alone
+    // decides what happens to it.
+    private final String mSender;
+    private final BodyLoader mBodyLoader;
+    private final int mSubId;
+    private String mBody;
+    private boolean mBodyLoaded;
+    private String mFoldedSender;
+    private String mFoldedBody;
+    private PhoneNumberKey mSenderNumber;
+    private PhoneNumberKey mBodyNumber;
+    private boolean mSenderNumberParsed;
+    private boolean mBodyNumberParsed;
+
+    public SmsMatchContext(String sender, String body) {
+        this(sender, body, 0);
+    }
+
+    public SmsMatchContext(String sender, String body, int subId) {
+        mSender = sender;
+        mBodyLoader = null;
+        mBody = body;
+        mBodyLoaded = true;
+        mSubId = subId;
+    }
+
+    public SmsMatchContext(String sender, BodyLoader bodyLoader, int subId) {
+        mSender = sender;
+        mBodyLoader = bodyLoader;
+        mSubId = subId;
+    }
+
+    public String getSender() {
+        return mSender;
+    }
+
+    public String getBody() {
+        if (!mBodyLoaded) {
+            mBody = mBodyLoader.loadBody();
+            mBodyLoaded = true;
+        }
+        return mBody;
+    }
+
+    public int getSubId() {
+        return mSubId;
+    }
+
+    public String getFoldedSender() {
+        if (mFoldedSender == null) {
+            mFoldedSender = StringUtils.foldCase(mSender);
+        }
+        return mFoldedSender;
+    }
+
+    public String getFoldedBody() {
+        if (mFoldedBody == null) {
+            mFoldedBody = StringUtils.foldCase(getBody());
+        }
+        return mFoldedBody;
+    }
+
+    public PhoneNumberKey getSenderNumber() {
+        // Null is a valid result (not a phone number), so
+        // it can't be used to tell if we've parsed it yet
+        if (!mSenderNumberParsed) {
+            mSenderNumber = PhoneNumberKey.parse(mSender);
+            mSenderNumberParsed = true;
+        }
+        return mSenderNumber;
+    }
+
+    public PhoneNumberKey getBodyNumber() {
+        if (!mBodyNumberParsed) {
+            mBodyNumber = PhoneNumberKey.parse(getBody());
+            mBodyNumberParsed = true;
+        }
+        return mBodyNumber;
+    }
+
+    public String getField(SmsFilterField field) {
+        switch (field) {
+        case SENDER:
+            return getSender();
+        case BODY:
+            return getBody();
+        default:
+            throw new AssertionError("Invalid field: " + field);
+        }
+    }
+
+    public String getFoldedField(SmsFilterField field) {
+        switch (field) {
+        case SENDER:
+            return getFoldedSender();
+        case BODY:
+            return getFoldedBody();
+        default:
+            throw new AssertionError("Invalid field: " + field);
+        }
+    }
+
+    public PhoneNumberKey getNumberField(SmsFilterField field) {
+        switch (field) {
+        case SENDER:
+            return getSenderNumber();
+        case BODY:
+            return getBodyNumber();
+        default:
+            throw new AssertionError("Invalid field: " + field);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterAction;
+
+public class SmsNumberList {
+    private final long mId;
+    private final SmsFilterAction mAction;
+    private final String mName;
+    private final PhoneNumberSet mNumbers;
+
+    public SmsNumberList(long id, SmsFilterAction action, String name, PhoneNumberSet numbers) {
+        mId = id;
+        mAction = action;
+        mName = name;
+        mNumbers = numbers;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public SmsFilterAction getAction() {
+        return mAction;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int size() {
+        return mNumbers.size();
+    }
+
+    public PhoneNumberSet getNumbers() {
+        return mNumbers;
+    }
+
+    public boolean match(SmsMatchContext context) {
+        PhoneNumberKey number = context.getSenderNumber();
+        return number != null && mNumbers.contains(number);
+    }
+}
@@ -0,0 +1,128 @@
+package com.crossbowffs.nekosms.filters;
+
+import android.util.Log;
+import com.crossbowffs.nekosms.data.SmsFilterAction;
+import com.crossbowffs.nekosms.utils.Xlog;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* package */ class SmsNumberListSet {
+    // Most senders are not on any list, so all lists share a single
+    // Bloom filter over the digits that a matching number must have
+    // in common with a listed one. If the filter says the sender can't
+    // be on any list, none of the lists need to be searched.
+    private final SmsNumberList[] mNumberLists;
+    private final BloomFilter mGate;
+    private final AtomicLong mLookupCount = new AtomicLong();
+    private final AtomicLong mGatePassCount = new AtomicLong();
+    private final AtomicLong mGateMissCount = new AtomicLong();
+    private final AtomicLong mNearMissCount = new AtomicLong();
+    private final AtomicLong mFalsePositiveCount = new AtomicLong();
+
+    public SmsNumberListSet(SmsNumberList[] numberLists, double falsePositiveRate) {
+        mNumberLists = numberLists;
+        if (numberLists.length == 0) {
+            mGate = null;
+            return;
+        }
+
+        int numberCount = 0;
+        for (SmsNumberList numberList : numberLists) {
+            numberCount += numberList.size();
+        }
+        mGate = new BloomFilter(numberCount, falsePositiveRate);
+        for (SmsNumberList numberList : numberLists) {
+            for (long key : numberList.getNumbers().getKeys()) {
+                mGate.add(PhoneNumberSet.getIndexKey(key));
+            }
+        }
+        Xlog.i("Built number list filter for %d numbers (%d bits, %d hashes)",
+            numberCount, mGate.getBitCount(), mGate.getHashCount());
+    }
+
+    public int size() {
+        return mNumberLists.length;
+    }
+
+    public SmsNumberList match(SmsMatchContext context) {
+        // Whitelist lists win over blacklist lists, just like rules
+        if (mGate == null) {
+            return null;
+        }
+        PhoneNumberKey number = context.getSenderNumber();
+        if (number == null) {
+            return null;
+        }
+        long key = PhoneNumberSet.encode(number);
+        if (key < 0) {
+            return null;
+        }
+
+        mLookupCount.incrementAndGet();
+        long indexKey = PhoneNumberSet.getIndexKey(key);
+        if (!mGate.mightContain(indexKey)) {
+            return null;
+        }
+        mGatePassCount.incrementAndGet();
+
+        SmsNumberList blacklist = null;
+        for (SmsNumberList numberList : mNumberLists) {
+            if (numberList.getAction() == SmsFilterAction.ALLOW) {
+                if (numberList.match(context)) {
+                    return numberList;
+                }
+            } else if (blacklist == null && numberList.match(context)) {
+                blacklist = numberList;
+            }
+        }
+        if (blacklist == null) {
+            mGateMissCount.incrementAndGet();
+            if (Xlog.isLoggable(Log.VERBOSE)) {
+                recordMiss(indexKey);
+            }
+        }
+        return blacklist;
+    }
+
+    private void recordMiss(long indexKey) {
+        // A sender that ends with the same digits as a listed number
+        // is supposed to get through the filter, even if the rest of
+        // the number is different. Only count real false positives,
+        // so they can be compared against the configured rate. This
+        // searches every list again, so it only runs when verbose
+        // logging is enabled.
+        for (SmsNumberList numberList : mNumberLists) {
+            if (numberList.getNumbers().containsIndexKey(indexKey)) {
+                mNearMissCount.incrementAndGet();
+                return;
+            }
+        }
+        mFalsePositiveCount.incrementAndGet();
+    }
+
+    public void printStatsToLog() {
+        // The observed rate is relative to senders that the filter
+        // should have rejected, which is how the configured rate is
+        // defined, so hits and near misses are left out.
+        if (mGate == null) {
+            return;
+        }
+        long lookups = mLookupCount.get();
+        long skipped = lookups - mGatePassCount.get();
+        long gateMisses = mGateMissCount.get();
+        long nearMisses = mNearMissCount.get();
+        long falsePositives = mFalsePositiveCount.get();
+        if (nearMisses + falsePositives == 0) {
+            // Misses were not classified (verbose logging was off),
+            // so near misses and false positives can't be told apart
+            Xlog.i("Number list filter: %d lookups, %d skipped, %d passed without a match (expected %.2f%%)",
+                lookups, skipped, gateMisses, mGate.getFalsePositiveRate() * 100);
+            return;
+        }
+        long negatives = skipped + falsePositives;
+        double falsePositiveRate = (negatives > 0) ? (double)falsePositives / negatives : 0;
+        Xlog.i("Number list filter: %d lookups, %d skipped, %d near misses, %d false positives (%.2f%%, expected %.2f%%)",
+            lookups, skipped, nearMisses, falsePositives,
+            falsePositiveRate * 100, mGate.getFalsePositiveRate() * 100);
+    }
+}
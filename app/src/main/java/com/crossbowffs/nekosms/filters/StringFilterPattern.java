@@ -7,6 +7,7 @@ import java.text.Normalizer;
 
 /* package */ class StringFilterPattern extends SmsFilterPattern {
     private final String mNormalizedPattern;
+    private final String mNeedle;
 
     public StringFilterPattern(SmsFilterPatternData data) {
         super(data);
@@ -16,32 +17,39 @@ import java.text.Normalizer;
         // The sender and body values are normalized once in the
         // Xposed module to improve performance.
         mNormalizedPattern = Normalizer.normalize(getPattern(), Normalizer.Form.NFC);
+
+        // Case-insensitive patterns are folded once here, and are
+        // compared against the folded message text, which is also
+        // only folded once per message (see SmsMatchContext).
+        if (isCaseSensitive()) {
+            mNeedle = mNormalizedPattern;
+        } else {
+            mNeedle = StringUtils.foldCase(mNormalizedPattern);
+        }
+    }
+
+    public String getNormalizedPattern() {
+        return mNormalizedPattern;
     }
 
     @Override
-    public boolean match(String sender, String body) {
+    public boolean match(SmsMatchContext context) {
         String testString;
-        switch (getField()) {
-        case SENDER:
-            testString = sender;
-            break;
-        case BODY:
-            testString = body;
-            break;
-        default:
-            throw new AssertionError("Invalid field: " + getField());
+        if (isCaseSensitive()) {
+            testString = context.getField(getField());
+        } else {
+            testString = context.getFoldedField(getField());
         }
 
-        boolean ignoreCase = !isCaseSensitive();
         switch (getMode()) {
         case CONTAINS:
-            return StringUtils.contains(testString, mNormalizedPattern, ignoreCase);
+            return testString.contains(mNeedle);
         case PREFIX:
-            return StringUtils.startsWith(testString, mNormalizedPattern, ignoreCase);
+            return testString.startsWith(mNeedle);
         case SUFFIX:
-            return StringUtils.endsWith(testString, mNormalizedPattern, ignoreCase);
+            return testString.endsWith(mNeedle);
         case EQUALS:
-            return StringUtils.equals(testString, mNormalizedPattern, ignoreCase);
+            return testString.equals(mNeedle);
         default:
             throw new AssertionError("Invalid mode: " + getMode());
         }
@@ -1,14 +1,18 @@
 package com.crossbowffs.nekosms.loader;
 
-import android.content.ContentValues;
-import android.content.Context;
+import android.content.*;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import com.crossbowffs.nekosms.data.SmsMessageData;
+import com.crossbowffs.nekosms.provider.DatabaseContract;
 import com.crossbowffs.nekosms.utils.MapUtils;
 import com.crossbowffs.nekosms.widget.AutoContentLoader;
 import com.crossbowffs.nekosms.widget.CursorWrapper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.crossbowffs.nekosms.provider.DatabaseContract.BlockedMessages;
 
 public class BlockedSmsLoader extends AutoContentLoader<SmsMessageData> {
@@ -81,6 +85,33 @@ public class BlockedSmsLoader extends AutoContentLoader<SmsMessageData> {
         return values;
     }
 
+    public List<Uri> insertAll(Context context, List<SmsMessageData> messages) {
+        // All messages are inserted in a single transaction, which
+        // only notifies observers once, instead of once per message.
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>(messages.size());
+        for (SmsMessageData message : messages) {
+            ContentValues values = serialize(message);
+            ops.add(ContentProviderOperation.newInsert(BlockedMessages.CONTENT_URI).withValues(values).build());
+        }
+
+        ContentProviderResult[] results;
+        try {
+            results = context.getContentResolver().applyBatch(DatabaseContract.AUTHORITY, ops);
+        } catch (RemoteException e) {
+            throw new RuntimeException(e);
+        } catch (OperationApplicationException e) {
+            return null;
+        }
+
+        ArrayList<Uri> messageUris = new ArrayList<>(results.length);
+        for (ContentProviderResult result : results) {
+            if (result.uri != null && ContentUris.parseId(result.uri) >= 0) {
+                messageUris.add(result.uri);
+            }
+        }
+        return messageUris;
+    }
+
     public CursorWrapper<SmsMessageData> queryUnseen(Context context) {
         return queryAll(context, BlockedMessages.SEEN + "=?", new String[] {"0"}, BlockedMessages.TIME_SENT + " DESC");
     }
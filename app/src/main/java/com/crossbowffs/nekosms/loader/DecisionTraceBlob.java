@@ -0,0 +1,71 @@
+package com.crossbowffs.nekosms.loader;
+
+import com.crossbowffs.nekosms.data.SmsDecisionData;
+import com.crossbowffs.nekosms.data.SmsDecisionReason;
+import com.crossbowffs.nekosms.utils.Xlog;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class DecisionTraceBlob {
+    // Bump this whenever the format below changes, or when the
+    // values in SmsDecisionReason change. The module keeps running
+    // its old code until reboot, so the app may be newer than it.
+    private static final int MAGIC = 0x4e4b4454;
+    private static final int FORMAT_VERSION = 1;
+
+    private DecisionTraceBlob() { }
+
+    public static void writeHeader(DataOutputStream out, int count) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(count);
+    }
+
+    public static void writeRecord(DataOutputStream out, long time, int reason, long id,
+                                   long matchTimeNanos, int senderHash, int subId) throws IOException {
+        out.writeLong(time);
+        out.writeByte(reason);
+        out.writeLong(id);
+        out.writeLong(matchTimeNanos);
+        out.writeInt(senderHash);
+        out.writeInt(subId);
+    }
+
+    public static List<SmsDecisionData> read(InputStream in) throws IOException {
+        DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Invalid decision trace blob");
+        }
+
+        int formatVersion = dataIn.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            Xlog.w("Decision trace blob has a different format (%d)", formatVersion);
+            return null;
+        }
+
+        int count = dataIn.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid decision count: " + count);
+        }
+
+        SmsDecisionReason[] reasons = SmsDecisionReason.values();
+        ArrayList<SmsDecisionData> decisions = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            SmsDecisionData data = new SmsDecisionData();
+            data.setTime(dataIn.readLong());
+            int reason = dataIn.readByte();
+            if (reason < 0 || reason >= reasons.length) {
+                throw new IOException("Invalid decision reason: " + reason);
+            }
+            data.setReason(reasons[reason]);
+            data.setId(dataIn.readLong());
+            data.setMatchTimeNanos(dataIn.readLong());
+            data.setSenderHash(dataIn.readInt());
+            data.setSubId(dataIn.readInt());
+            decisions.add(data);
+        }
+        return decisions;
+    }
+}
@@ -0,0 +1,47 @@
+package com.crossbowffs.nekosms.loader;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import com.crossbowffs.nekosms.consts.BroadcastConsts;
+import com.crossbowffs.nekosms.data.SmsDecisionData;
+import com.crossbowffs.nekosms.provider.DatabaseContract;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static com.crossbowffs.nekosms.provider.DatabaseContract.DecisionTrace;
+
+public final class DecisionTraceLoader {
+    private static final String PHONE_PACKAGE = "com.android.phone";
+
+    private DecisionTraceLoader() { }
+
+    public static void requestTrace(Context context) {
+        // The module answers by sending its trace to the provider,
+        // which then notifies DecisionTrace.CONTENT_URI observers.
+        Intent intent = new Intent(BroadcastConsts.ACTION_DUMP_DECISION_TRACE);
+        intent.setPackage(PHONE_PACKAGE);
+        context.sendBroadcast(intent);
+    }
+
+    public static void putTrace(Context context, byte[] trace) {
+        Bundle extras = new Bundle();
+        extras.putByteArray(DecisionTrace.EXTRA_TRACE, trace);
+        context.getContentResolver().call(DatabaseContract.CONTENT_URI, DecisionTrace.METHOD_PUT_TRACE, null, extras);
+    }
+
+    /**
+     * Returns the last trace sent by the module, oldest decision first,
+     * or null if there is none (or it was written by another version).
+     */
+    public static List<SmsDecisionData> queryTrace(Context context) throws IOException {
+        Bundle result = context.getContentResolver().call(DatabaseContract.CONTENT_URI, DecisionTrace.METHOD_GET_TRACE, null, null);
+        byte[] trace = (result == null) ? null : result.getByteArray(DecisionTrace.EXTRA_TRACE);
+        if (trace == null) {
+            return null;
+        }
+        return DecisionTraceBlob.read(new ByteArrayInputStream(trace));
+    }
+}
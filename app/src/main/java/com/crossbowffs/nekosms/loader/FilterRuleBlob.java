@@ -0,0 +1,127 @@
+package com.crossbowffs.nekosms.loader;
+
+import com.crossbowffs.nekosms.BuildConfig;
+import com.crossbowffs.nekosms.data.SmsFilterAction;
+import com.crossbowffs.nekosms.data.SmsFilterData;
+import com.crossbowffs.nekosms.data.SmsFilterMode;
+import com.crossbowffs.nekosms.data.SmsFilterPatternData;
+import com.crossbowffs.nekosms.utils.Xlog;
+import com.crossbowffs.nekosms.widget.CursorWrapper;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class FilterRuleBlob {
+    // Bump this whenever the format below changes. Blobs written
+    // with a different format or database version are ignored.
+    private static final int MAGIC = 0x4e4b4652;
+    private static final int FORMAT_VERSION = 1;
+    private static final int DATABASE_VERSION = BuildConfig.DATABASE_VERSION;
+
+    private FilterRuleBlob() { }
+
+    public static void write(OutputStream out, CursorWrapper<SmsFilterData> filterCursor) throws IOException {
+        // The body is written first so we know how many rules made it
+        // in; rules that fail to parse are skipped, just like when
+        // reading them from the database directly.
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        int count = 0;
+        SmsFilterData data = new SmsFilterData();
+        while (filterCursor.moveToNext()) {
+            try {
+                data = filterCursor.get(data);
+            } catch (Exception e) {
+                Xlog.e("Failed to load SMS filter", e);
+                continue;
+            }
+            writeFilter(bodyOut, data);
+            count++;
+        }
+        bodyOut.flush();
+
+        DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(FORMAT_VERSION);
+        dataOut.writeInt(DATABASE_VERSION);
+        dataOut.writeInt(count);
+        body.writeTo(dataOut);
+        dataOut.flush();
+    }
+
+    public static List<SmsFilterData> read(InputStream in) throws IOException {
+        DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Invalid filter rule blob");
+        }
+
+        int formatVersion = dataIn.readInt();
+        int databaseVersion = dataIn.readInt();
+        if (formatVersion != FORMAT_VERSION || databaseVersion != DATABASE_VERSION) {
+            Xlog.w("Filter rule blob is stale (format %d, database %d)", formatVersion, databaseVersion);
+            return null;
+        }
+
+        int count = dataIn.readInt();
+        ArrayList<SmsFilterData> filters = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            filters.add(readFilter(dataIn));
+        }
+        return filters;
+    }
+
+    private static void writeFilter(DataOutputStream out, SmsFilterData data) throws IOException {
+        out.writeLong(data.getId());
+        writeString(out, data.getAction().name());
+        writePattern(out, data.getSenderPattern());
+        writePattern(out, data.getBodyPattern());
+    }
+
+    private static SmsFilterData readFilter(DataInputStream in) throws IOException {
+        SmsFilterData data = new SmsFilterData();
+        data.setId(in.readLong());
+        data.setAction(SmsFilterAction.parse(readString(in)));
+        readPattern(in, data.getSenderPattern());
+        readPattern(in, data.getBodyPattern());
+        return data;
+    }
+
+    private static void writePattern(DataOutputStream out, SmsFilterPatternData data) throws IOException {
+        if (!data.hasData()) {
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        writeString(out, data.getMode().name());
+        writeString(out, data.getPattern());
+        out.writeBoolean(data.isCaseSensitive());
+    }
+
+    private static void readPattern(DataInputStream in, SmsFilterPatternData data) throws IOException {
+        if (!in.readBoolean()) {
+            return;
+        }
+        data.setMode(SmsFilterMode.parse(readString(in)));
+        data.setPattern(readString(in));
+        data.setCaseSensitive(in.readBoolean());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        // writeUTF() is limited to 64KB, which a pattern could
+        // theoretically exceed, so write the length ourselves.
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
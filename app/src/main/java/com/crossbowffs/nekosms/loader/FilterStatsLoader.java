@@ -0,0 +1,93 @@
+package com.crossbowffs.nekosms.loader;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import com.crossbowffs.nekosms.data.SmsFilterStatsData;
+import com.crossbowffs.nekosms.provider.DatabaseContract;
+import com.crossbowffs.nekosms.utils.MapUtils;
+import com.crossbowffs.nekosms.widget.AutoContentLoader;
+
+import java.util.List;
+
+import static com.crossbowffs.nekosms.provider.DatabaseContract.FilterStats;
+
+public class FilterStatsLoader extends AutoContentLoader<SmsFilterStatsData> {
+    private static FilterStatsLoader sInstance;
+
+    public static FilterStatsLoader get() {
+        if (sInstance == null) {
+            sInstance = new FilterStatsLoader();
+        }
+        return sInstance;
+    }
+
+    private FilterStatsLoader() {
+        super(FilterStats.CONTENT_URI, FilterStats.ALL);
+    }
+
+    @Override
+    protected SmsFilterStatsData newData() {
+        return new SmsFilterStatsData();
+    }
+
+    @Override
+    protected void clearData(SmsFilterStatsData data) {
+        data.reset();
+    }
+
+    @Override
+    protected void bindData(Cursor cursor, int column, String columnName, SmsFilterStatsData data) {
+        switch (columnName) {
+        case FilterStats._ID:
+            data.setId(cursor.getLong(column));
+            break;
+        case FilterStats.HIT_COUNT:
+            data.setHitCount(cursor.getLong(column));
+            break;
+        case FilterStats.LAST_HIT_TIME:
+            data.setLastHitTime(cursor.getLong(column));
+            break;
+        case FilterStats.MATCH_TIME_NANOS:
+            data.setMatchTimeNanos(cursor.getLong(column));
+            break;
+        }
+    }
+
+    @Override
+    protected ContentValues serialize(SmsFilterStatsData data) {
+        ContentValues values = MapUtils.contentValuesForSize(4);
+        if (data.getId() >= 0) {
+            values.put(FilterStats._ID, data.getId());
+        }
+        values.put(FilterStats.HIT_COUNT, data.getHitCount());
+        values.put(FilterStats.LAST_HIT_TIME, data.getLastHitTime());
+        values.put(FilterStats.MATCH_TIME_NANOS, data.getMatchTimeNanos());
+        return values;
+    }
+
+    public void addStats(Context context, List<SmsFilterStatsData> stats) {
+        // Adds the given values to the stored stats (or for the last
+        // hit time, takes the latest one) in a single transaction.
+        int count = stats.size();
+        long[] ids = new long[count];
+        long[] hitCounts = new long[count];
+        long[] lastHitTimes = new long[count];
+        long[] matchTimes = new long[count];
+        for (int i = 0; i < count; ++i) {
+            SmsFilterStatsData data = stats.get(i);
+            ids[i] = data.getId();
+            hitCounts[i] = data.getHitCount();
+            lastHitTimes[i] = data.getLastHitTime();
+            matchTimes[i] = data.getMatchTimeNanos();
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(FilterStats.EXTRA_IDS, ids);
+        extras.putLongArray(FilterStats.EXTRA_HIT_COUNTS, hitCounts);
+        extras.putLongArray(FilterStats.EXTRA_LAST_HIT_TIMES, lastHitTimes);
+        extras.putLongArray(FilterStats.EXTRA_MATCH_TIMES, matchTimes);
+        context.getContentResolver().call(DatabaseContract.CONTENT_URI, FilterStats.METHOD_ADD_STATS, null, extras);
+    }
+}
@@ -0,0 +1,63 @@
+package com.crossbowffs.nekosms.loader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+public final class NumberListBlob {
+    // Bump this whenever the format below changes, or when the
+    // key format in PhoneNumberSet changes. Blobs written with a
+    // different format must be imported again.
+    private static final int MAGIC = 0x4e4b4e4c;
+    private static final int FORMAT_VERSION = 1;
+
+    // Keys are copied out of the file in chunks of this many bytes,
+    // so that reading a large list doesn't need twice its memory.
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private NumberListBlob() { }
+
+    public static void write(OutputStream out, long[] keys) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out, CHUNK_SIZE));
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(FORMAT_VERSION);
+        dataOut.writeInt(keys.length);
+        for (long key : keys) {
+            dataOut.writeLong(key);
+        }
+        dataOut.flush();
+    }
+
+    public static long[] read(InputStream in) throws IOException {
+        DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Invalid number list blob");
+        }
+
+        int formatVersion = dataIn.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported number list format: " + formatVersion);
+        }
+
+        int count = dataIn.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid number count: " + count);
+        }
+
+        // Reading the keys one at a time through readLong() is
+        // noticeably slow for lists with hundreds of thousands
+        // of numbers, so copy them over in bulk instead.
+        long[] keys = new long[count];
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE, count * 8)];
+        LongBuffer chunkKeys = ByteBuffer.wrap(chunk).asLongBuffer();
+        int offset = 0;
+        while (offset < count) {
+            int chunkCount = Math.min(chunk.length / 8, count - offset);
+            dataIn.readFully(chunk, 0, chunkCount * 8);
+            chunkKeys.rewind();
+            chunkKeys.get(keys, offset, chunkCount);
+            offset += chunkCount;
+        }
+        return keys;
+    }
+}
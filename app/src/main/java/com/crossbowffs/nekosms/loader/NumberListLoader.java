@@ -0,0 +1,179 @@
+package com.crossbowffs.nekosms.loader;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import com.crossbowffs.nekosms.data.SmsFilterAction;
+import com.crossbowffs.nekosms.data.SmsNumberListData;
+import com.crossbowffs.nekosms.filters.PhoneNumberKey;
+import com.crossbowffs.nekosms.filters.PhoneNumberSet;
+import com.crossbowffs.nekosms.utils.MapUtils;
+import com.crossbowffs.nekosms.utils.Xlog;
+import com.crossbowffs.nekosms.widget.AutoContentLoader;
+import com.crossbowffs.nekosms.widget.CursorWrapper;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static com.crossbowffs.nekosms.provider.DatabaseContract.NumberLists;
+
+public class NumberListLoader extends AutoContentLoader<SmsNumberListData> {
+    private static NumberListLoader sInstance;
+
+    public static NumberListLoader get() {
+        if (sInstance == null) {
+            sInstance = new NumberListLoader();
+        }
+        return sInstance;
+    }
+
+    private NumberListLoader() {
+        super(NumberLists.CONTENT_URI, NumberLists.ALL);
+    }
+
+    @Override
+    protected SmsNumberListData newData() {
+        return new SmsNumberListData();
+    }
+
+    @Override
+    protected void clearData(SmsNumberListData data) {
+        data.reset();
+    }
+
+    @Override
+    protected void bindData(Cursor cursor, int column, String columnName, SmsNumberListData data) {
+        switch (columnName) {
+        case NumberLists._ID:
+            data.setId(cursor.getLong(column));
+            break;
+        case NumberLists.ACTION:
+            data.setAction(SmsFilterAction.parse(cursor.getString(column)));
+            break;
+        case NumberLists.NAME:
+            data.setName(cursor.getString(column));
+            break;
+        case NumberLists.NUMBER_COUNT:
+            data.setNumberCount(cursor.getInt(column));
+            break;
+        }
+    }
+
+    @Override
+    protected ContentValues serialize(SmsNumberListData data) {
+        ContentValues values = MapUtils.contentValuesForSize(4);
+        if (data.getId() >= 0) {
+            values.put(NumberLists._ID, data.getId());
+        }
+        values.put(NumberLists.ACTION, data.getAction().name());
+        values.put(NumberLists.NAME, data.getName());
+        values.put(NumberLists.NUMBER_COUNT, data.getNumberCount());
+        return values;
+    }
+
+    public CursorWrapper<SmsNumberListData> queryAll(Context context, SmsFilterAction action) {
+        return queryAll(context, NumberLists.ACTION + "=?", new String[] {action.name()}, null);
+    }
+
+    public static Uri getBlobUri(long id) {
+        return ContentUris.withAppendedId(NumberLists.BLOB_URI, id);
+    }
+
+    public PhoneNumberSet queryNumbers(Context context, long id) throws IOException {
+        try (InputStream in = context.getContentResolver().openInputStream(getBlobUri(id))) {
+            if (in == null) {
+                throw new FileNotFoundException("Could not open number list " + id);
+            }
+            return PhoneNumberSet.fromSortedKeys(NumberListBlob.read(in));
+        }
+    }
+
+    public SmsNumberListData importList(Context context, Uri sourceUri, SmsFilterAction action, String name) throws IOException {
+        PhoneNumberSet numbers;
+        try (InputStream in = context.getContentResolver().openInputStream(sourceUri)) {
+            if (in == null) {
+                throw new FileNotFoundException("Could not open " + sourceUri);
+            }
+            numbers = parseNumbers(in);
+        }
+        if (numbers.size() == 0) {
+            throw new IOException("No phone numbers found in " + sourceUri);
+        }
+
+        // The row is created first to get an ID for the file, but
+        // the number count is only filled in once the file has been
+        // written. Updating the row is what notifies the module.
+        SmsNumberListData data = new SmsNumberListData()
+            .setAction(action)
+            .setName(name)
+            .setNumberCount(0);
+        Uri listUri = insert(context, data);
+        if (listUri == null) {
+            throw new IOException("Failed to create number list");
+        }
+        data.setId(ContentUris.parseId(listUri));
+
+        try (OutputStream out = context.getContentResolver().openOutputStream(getBlobUri(data.getId()), "w")) {
+            if (out == null) {
+                throw new FileNotFoundException("Could not write number list " + data.getId());
+            }
+            NumberListBlob.write(out, numbers.getKeys());
+        } catch (IOException e) {
+            delete(context, listUri);
+            throw e;
+        }
+
+        data.setNumberCount(numbers.size());
+        update(context, listUri, serialize(data));
+        Xlog.i("Imported %d numbers into list %d", numbers.size(), data.getId());
+        return data;
+    }
+
+    private static PhoneNumberSet parseNumbers(InputStream in) throws IOException {
+        // One number per line. Blocklists are often CSV files with
+        // the number in the first column, so anything after the first
+        // separator is ignored, as are comments and lines that are not
+        // phone numbers (e.g. a header row).
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        long[] keys = new long[1024];
+        int count = 0;
+        int skipped = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int end = indexOfSeparator(line);
+            String value = line.substring(0, end).trim();
+            if (value.isEmpty() || value.startsWith("#")) {
+                continue;
+            }
+
+            PhoneNumberKey number = PhoneNumberKey.parse(value);
+            long key = (number == null) ? -1 : PhoneNumberSet.encode(number);
+            if (key < 0) {
+                skipped++;
+                continue;
+            }
+
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[count++] = key;
+        }
+
+        if (skipped > 0) {
+            Xlog.w("Skipped %d lines that are not phone numbers", skipped);
+        }
+        return PhoneNumberSet.fromKeys(keys, count);
+    }
+
+    private static int indexOfSeparator(String line) {
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == ',' || c == ';' || c == '\t') {
+                return i;
+            }
+        }
+        return line.length();
+    }
+}
@@ -40,6 +40,11 @@ public final class DatabaseContract {
         public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.crossbowffs.filter";
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd.crossbowffs.filter";
 
+        // Read-only file containing all rules in a compact binary
+        // format, see FilterRuleBlob. This is not a child of the
+        // table URI, so reading it does not notify rule observers.
+        public static final Uri BLOB_URI = Uri.withAppendedPath(DatabaseContract.CONTENT_URI, TABLE + ".bin");
+
         public static final String ACTION = "action";
         public static final String SENDER_MODE = "sender_mode";
         public static final String SENDER_PATTERN = "sender_pattern";
@@ -58,4 +63,65 @@ public final class DatabaseContract {
             BODY_CASE_SENSITIVE,
         };
     }
+
+    public static class FilterStats implements BaseColumns {
+        public static final String TABLE = "filter_stats";
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(DatabaseContract.CONTENT_URI, TABLE);
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.crossbowffs.filterstats";
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd.crossbowffs.filterstats";
+
+        // Stats are added to the existing values through a provider
+        // call, since ContentValues can't express an increment.
+        public static final String METHOD_ADD_STATS = "add_filter_stats";
+        public static final String EXTRA_IDS = "ids";
+        public static final String EXTRA_HIT_COUNTS = "hit_counts";
+        public static final String EXTRA_LAST_HIT_TIMES = "last_hit_times";
+        public static final String EXTRA_MATCH_TIMES = "match_times";
+
+        // _ID is the ID of the filter rule
+        public static final String HIT_COUNT = "hit_count";
+        public static final String LAST_HIT_TIME = "last_hit_time";
+        public static final String MATCH_TIME_NANOS = "match_time_nanos";
+        public static final String[] ALL = {
+            _ID,
+            HIT_COUNT,
+            LAST_HIT_TIME,
+            MATCH_TIME_NANOS,
+        };
+    }
+
+    public static class NumberLists implements BaseColumns {
+        public static final String TABLE = "number_lists";
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(DatabaseContract.CONTENT_URI, TABLE);
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.crossbowffs.numberlist";
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd.crossbowffs.numberlist";
+
+        // The numbers in each list are stored in a file instead of
+        // the database, see NumberListBlob. Append the list ID to get
+        // the file URI. Like the rule blob, this is not a child of the
+        // table URI, so the list row should be updated after writing
+        // the file to notify observers.
+        public static final Uri BLOB_URI = Uri.withAppendedPath(DatabaseContract.CONTENT_URI, TABLE + ".bin");
+
+        public static final String ACTION = "action";
+        public static final String NAME = "name";
+        public static final String NUMBER_COUNT = "number_count";
+        public static final String[] ALL = {
+            _ID,
+            ACTION,
+            NAME,
+            NUMBER_COUNT,
+        };
+    }
+
+    public static class DecisionTrace {
+        // The decision trace lives in the phone process, which sends it
+        // here through a provider call when the app asks for it (see
+        // BroadcastConsts.ACTION_DUMP_DECISION_TRACE). It is only kept
+        // in memory; observers of this URI are notified when it arrives.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(DatabaseContract.CONTENT_URI, "decision_trace");
+        public static final String METHOD_PUT_TRACE = "put_decision_trace";
+        public static final String METHOD_GET_TRACE = "get_decision_trace";
+        public static final String EXTRA_TRACE = "trace";
+    }
 }
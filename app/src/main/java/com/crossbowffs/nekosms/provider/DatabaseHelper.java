@@ -13,6 +13,8 @@ import com.crossbowffs.nekosms.utils.Xlog;
 
 import static com.crossbowffs.nekosms.provider.DatabaseContract.BlockedMessages;
 import static com.crossbowffs.nekosms.provider.DatabaseContract.FilterRules;
+import static com.crossbowffs.nekosms.provider.DatabaseContract.FilterStats;
+import static com.crossbowffs.nekosms.provider.DatabaseContract.NumberLists;
 
 /* package */ class DatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "nekosms.db";
@@ -42,6 +44,32 @@ import static com.crossbowffs.nekosms.provider.DatabaseContract.FilterRules;
             FilterRules.BODY_CASE_SENSITIVE     + " INTEGER" +
         ");";
 
+    // Kept separate from the filter rules, so that updating the
+    // stats doesn't cause the filters to be reloaded.
+    private static final String CREATE_FILTER_STATS_TABLE =
+        "CREATE TABLE " + FilterStats.TABLE + "(" +
+            FilterStats._ID                     + " INTEGER PRIMARY KEY, " +
+            FilterStats.HIT_COUNT               + " INTEGER NOT NULL DEFAULT 0, " +
+            FilterStats.LAST_HIT_TIME           + " INTEGER NOT NULL DEFAULT 0, " +
+            FilterStats.MATCH_TIME_NANOS        + " INTEGER NOT NULL DEFAULT 0" +
+        ");";
+
+    private static final String CREATE_FILTER_STATS_DELETE_TRIGGER =
+        "CREATE TRIGGER " + FilterStats.TABLE + "_delete" +
+        " AFTER DELETE ON " + FilterRules.TABLE +
+        " BEGIN" +
+            " DELETE FROM " + FilterStats.TABLE +
+            " WHERE " + FilterStats._ID + "=OLD." + FilterRules._ID + ";" +
+        " END;";
+
+    private static final String CREATE_NUMBER_LISTS_TABLE =
+        "CREATE TABLE " + NumberLists.TABLE + "(" +
+            NumberLists._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            NumberLists.ACTION                  + " TEXT NOT NULL, " +
+            NumberLists.NAME                    + " TEXT NOT NULL, " +
+            NumberLists.NUMBER_COUNT            + " INTEGER NOT NULL DEFAULT 0" +
+        ");";
+
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -50,20 +78,35 @@ import static com.crossbowffs.nekosms.provider.DatabaseContract.FilterRules;
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE_BLOCKED_MESSAGES_TABLE);
         db.execSQL(CREATE_FILTER_RULES_TABLE);
+        db.execSQL(CREATE_FILTER_STATS_TABLE);
+        db.execSQL(CREATE_FILTER_STATS_DELETE_TRIGGER);
+        db.execSQL(CREATE_NUMBER_LISTS_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Xlog.i("Upgrading database from v%d to v%d", oldVersion, newVersion);
+        // The pre-8 and 8 upgrades recreate all tables using the
+        // latest schema, so no further upgrades are necessary.
         if (oldVersion < 8) {
             upgradePre8(db);
+            return;
         } else if (oldVersion == 8) {
             upgrade8To11(db);
+            return;
         } else if (oldVersion == 9) {
             upgrade9To11(db);
         } else if (oldVersion == 10) {
             upgrade10To11(db);
         }
+
+        if (oldVersion < 12) {
+            upgrade11To12(db);
+        }
+
+        if (oldVersion < 13) {
+            upgrade12To13(db);
+        }
     }
 
     private void upgradePre8(SQLiteDatabase db) {
@@ -155,4 +198,13 @@ import static com.crossbowffs.nekosms.provider.DatabaseContract.FilterRules;
             " ADD COLUMN " + BlockedMessages.SUB_ID + " INTEGER NOT NULL" +
             " DEFAULT 0");
     }
+
+    private void upgrade11To12(SQLiteDatabase db) {
+        db.execSQL(CREATE_FILTER_STATS_TABLE);
+        db.execSQL(CREATE_FILTER_STATS_DELETE_TRIGGER);
+    }
+
+    private void upgrade12To13(SQLiteDatabase db) {
+        db.execSQL(CREATE_NUMBER_LISTS_TABLE);
+    }
 }
@@ -3,27 +3,244 @@ package com.crossbowffs.nekosms.provider;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import androidx.annotation.NonNull;
+import com.crossbowffs.nekosms.data.SmsFilterData;
+import com.crossbowffs.nekosms.loader.FilterRuleBlob;
+import com.crossbowffs.nekosms.loader.FilterRuleLoader;
+import com.crossbowffs.nekosms.utils.Xlog;
 import com.crossbowffs.nekosms.widget.AutoContentProvider;
+import com.crossbowffs.nekosms.widget.CursorWrapper;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
 
 import static com.crossbowffs.nekosms.provider.DatabaseContract.BlockedMessages;
+import static com.crossbowffs.nekosms.provider.DatabaseContract.DecisionTrace;
 import static com.crossbowffs.nekosms.provider.DatabaseContract.FilterRules;
+import static com.crossbowffs.nekosms.provider.DatabaseContract.FilterStats;
+import static com.crossbowffs.nekosms.provider.DatabaseContract.NumberLists;
 
 public class DatabaseProvider extends AutoContentProvider {
+    private static final String FILTER_RULES_BLOB_NAME = FilterRules.TABLE + ".bin";
+    private static final String NUMBER_LISTS_DIR_NAME = NumberLists.TABLE;
+
+    private final Object mFilterRulesBlobLock = new Object();
+    private int mFilterRulesVersion;
+    private volatile byte[] mDecisionTrace;
+
     public DatabaseProvider() {
         super(DatabaseContract.AUTHORITY, new ProviderTable[] {
             new ProviderTable(BlockedMessages.TABLE, BlockedMessages.CONTENT_ITEM_TYPE, BlockedMessages.CONTENT_TYPE),
-            new ProviderTable(FilterRules.TABLE, FilterRules.CONTENT_ITEM_TYPE, FilterRules.CONTENT_TYPE)
+            new ProviderTable(FilterRules.TABLE, FilterRules.CONTENT_ITEM_TYPE, FilterRules.CONTENT_TYPE),
+            new ProviderTable(FilterStats.TABLE, FilterStats.CONTENT_ITEM_TYPE, FilterStats.CONTENT_TYPE),
+            new ProviderTable(NumberLists.TABLE, NumberLists.CONTENT_ITEM_TYPE, NumberLists.CONTENT_TYPE)
         });
     }
 
+    @Override
+    public boolean onCreate() {
+        super.onCreate();
+
+        // The blob may have been written by an older version of the
+        // app, so just throw it away; it's cheap to regenerate. This
+        // also cleans up any temporary files left over from a crash.
+        File[] files = getContext().getFilesDir().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(FILTER_RULES_BLOB_NAME)) {
+                    file.delete();
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     protected SQLiteOpenHelper createDatabaseHelper(Context context) {
         return new DatabaseHelper(context);
     }
 
+    @Override
+    protected void onTableChanged(String tableName) {
+        if (FilterRules.TABLE.equals(tableName)) {
+            synchronized (mFilterRulesBlobLock) {
+                mFilterRulesVersion++;
+                deleteFilterRulesBlob();
+            }
+        } else if (NumberLists.TABLE.equals(tableName)) {
+            deleteOrphanNumberLists();
+        }
+    }
+
+    private void addFilterStats(Bundle extras) {
+        long[] ids = extras.getLongArray(FilterStats.EXTRA_IDS);
+        long[] hitCounts = extras.getLongArray(FilterStats.EXTRA_HIT_COUNTS);
+        long[] lastHitTimes = extras.getLongArray(FilterStats.EXTRA_LAST_HIT_TIMES);
+        long[] matchTimes = extras.getLongArray(FilterStats.EXTRA_MATCH_TIMES);
+        if (ids == null || hitCounts == null || lastHitTimes == null || matchTimes == null ||
+            hitCounts.length != ids.length || lastHitTimes.length != ids.length || matchTimes.length != ids.length) {
+            throw new IllegalArgumentException("Invalid filter stats");
+        }
+
+        // The row is only created if the filter still exists, so stats
+        // for a filter that was just deleted are dropped.
+        SQLiteDatabase db = getDatabase(true);
+        db.beginTransaction();
+        try (SQLiteStatement insertStatement = db.compileStatement(
+                "INSERT OR IGNORE INTO " + FilterStats.TABLE + "(" + FilterStats._ID + ")" +
+                " SELECT " + FilterRules._ID + " FROM " + FilterRules.TABLE +
+                " WHERE " + FilterRules._ID + "=?");
+             SQLiteStatement updateStatement = db.compileStatement(
+                "UPDATE " + FilterStats.TABLE + " SET " +
+                FilterStats.HIT_COUNT + "=" + FilterStats.HIT_COUNT + "+?, " +
+                FilterStats.LAST_HIT_TIME + "=MAX(" + FilterStats.LAST_HIT_TIME + ",?), " +
+                FilterStats.MATCH_TIME_NANOS + "=" + FilterStats.MATCH_TIME_NANOS + "+?" +
+                " WHERE " + FilterStats._ID + "=?")) {
+            for (int i = 0; i < ids.length; ++i) {
+                insertStatement.bindLong(1, ids[i]);
+                insertStatement.executeInsert();
+                updateStatement.bindLong(1, hitCounts[i]);
+                updateStatement.bindLong(2, lastHitTimes[i]);
+                updateStatement.bindLong(3, matchTimes[i]);
+                updateStatement.bindLong(4, ids[i]);
+                updateStatement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        getContext().getContentResolver().notifyChange(FilterStats.CONTENT_URI, null);
+    }
+
+    private File getFilterRulesBlobFile() {
+        return new File(getContext().getFilesDir(), FILTER_RULES_BLOB_NAME);
+    }
+
+    private void deleteFilterRulesBlob() {
+        synchronized (mFilterRulesBlobLock) {
+            getFilterRulesBlobFile().delete();
+        }
+    }
+
+    private ParcelFileDescriptor openFilterRulesBlob() throws FileNotFoundException {
+        File blobFile = getFilterRulesBlobFile();
+        int version;
+        synchronized (mFilterRulesBlobLock) {
+            if (blobFile.exists()) {
+                return ParcelFileDescriptor.open(blobFile, ParcelFileDescriptor.MODE_READ_ONLY);
+            }
+            version = mFilterRulesVersion;
+        }
+
+        // The database must not be accessed while holding the lock,
+        // since a writer in the middle of a transaction may be waiting
+        // on it. Instead, the blob is written to a temporary file and
+        // only published if the rules did not change in the meantime.
+        File tempFile;
+        try {
+            tempFile = File.createTempFile(FILTER_RULES_BLOB_NAME, null, getContext().getFilesDir());
+            SQLiteDatabase db = getDatabase(false);
+            Cursor cursor = db.query(FilterRules.TABLE, FilterRules.ALL, null, null, null, null, null);
+            try (CursorWrapper<SmsFilterData> filterCursor = FilterRuleLoader.get().wrapCursor(cursor);
+                 FileOutputStream out = new FileOutputStream(tempFile)) {
+                FilterRuleBlob.write(out, filterCursor);
+            }
+        } catch (IOException e) {
+            Xlog.e("Failed to write filter rule blob", e);
+            throw new FileNotFoundException("Failed to write filter rule blob");
+        }
+
+        synchronized (mFilterRulesBlobLock) {
+            if (version == mFilterRulesVersion && tempFile.renameTo(blobFile)) {
+                Xlog.i("Wrote filter rule blob");
+                return ParcelFileDescriptor.open(blobFile, ParcelFileDescriptor.MODE_READ_ONLY);
+            }
+        }
+
+        // The rules changed while we were writing the blob. It's still
+        // good enough for this caller, who will be notified of the
+        // change anyway, but it must not be served to anyone else.
+        ParcelFileDescriptor fd = ParcelFileDescriptor.open(tempFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        tempFile.delete();
+        return fd;
+    }
+
+    private File getNumberListFile(long id) {
+        File dir = new File(getContext().getFilesDir(), NUMBER_LISTS_DIR_NAME);
+        return new File(dir, id + ".bin");
+    }
+
+    private static long getNumberListId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !NumberLists.BLOB_URI.getLastPathSegment().equals(segments.get(0))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void deleteOrphanNumberLists() {
+        // Number files are deleted along with their rows here rather
+        // than by the app, so they can't be left behind if the app
+        // is killed halfway through deleting a list.
+        File[] files = new File(getContext().getFilesDir(), NUMBER_LISTS_DIR_NAME).listFiles();
+        if (files == null || files.length == 0) {
+            return;
+        }
+
+        HashSet<String> fileNames = new HashSet<>();
+        SQLiteDatabase db = getDatabase(false);
+        try (Cursor cursor = db.query(NumberLists.TABLE, new String[] {NumberLists._ID}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                fileNames.add(cursor.getLong(0) + ".bin");
+            }
+        }
+
+        for (File file : files) {
+            if (!fileNames.contains(file.getName())) {
+                Xlog.i("Deleting orphaned number list file: %s", file.getName());
+                file.delete();
+            }
+        }
+    }
+
+    private ParcelFileDescriptor openNumberList(long id, String mode) throws FileNotFoundException {
+        File file = getNumberListFile(id);
+        if ("r".equals(mode)) {
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        // Only the app itself imports lists; the phone process
+        // only ever needs to read them.
+        if ("com.android.phone".equals(getCallingPackage())) {
+            throw new SecurityException("Number lists are read-only");
+        }
+        if (!"w".equals(mode) && !"wt".equals(mode)) {
+            throw new FileNotFoundException("Unsupported mode: " + mode);
+        }
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new FileNotFoundException("Failed to create number list directory");
+        }
+        return ParcelFileDescriptor.open(file,
+            ParcelFileDescriptor.MODE_WRITE_ONLY |
+            ParcelFileDescriptor.MODE_CREATE |
+            ParcelFileDescriptor.MODE_TRUNCATE);
+    }
+
     /*
      * Below is an ugly workaround for Android 8.0+. Since the
      * com.android.phone package no longer has SMS permissions,
@@ -69,6 +286,40 @@ public class DatabaseProvider extends AutoContentProvider {
         return super.update(uri, values, selection, selectionArgs);
     }
 
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        checkAccess();
+        long numberListId = getNumberListId(uri);
+        if (numberListId >= 0) {
+            return openNumberList(numberListId, mode);
+        }
+        if (!FilterRules.BLOB_URI.equals(uri)) {
+            throw new FileNotFoundException("Invalid file URI: " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Filter rule blob is read-only");
+        }
+        return openFilterRulesBlob();
+    }
+
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        checkAccess();
+        if (FilterStats.METHOD_ADD_STATS.equals(method)) {
+            addFilterStats(extras);
+            return null;
+        } else if (DecisionTrace.METHOD_PUT_TRACE.equals(method)) {
+            mDecisionTrace = extras.getByteArray(DecisionTrace.EXTRA_TRACE);
+            getContext().getContentResolver().notifyChange(DecisionTrace.CONTENT_URI, null);
+            return null;
+        } else if (DecisionTrace.METHOD_GET_TRACE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putByteArray(DecisionTrace.EXTRA_TRACE, mDecisionTrace);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
     private void checkAccess() {
         String caller = getCallingPackage();
         if (caller != null && !"com.android.phone".equals(caller) && !"com.crossbowffs.nekosms".equals(caller)) {
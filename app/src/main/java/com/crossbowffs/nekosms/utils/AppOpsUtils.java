@@ -4,20 +4,18 @@ import android.app.AppOpsManager;
 import android.content.Context;
 import android.os.Process;
 
-import java.lang.reflect.Method;
-
 public final class AppOpsUtils {
     public static final int OP_WRITE_SMS = 15;
 
-    private static final Method sCheckOpMethod;
-    private static final Method sNoteOpMethod;
-    private static final Method sSetModeMethod;
+    private static final ReflectedMethod sCheckOpMethod;
+    private static final ReflectedMethod sNoteOpMethod;
+    private static final ReflectedMethod sSetModeMethod;
 
     static {
         Class<AppOpsManager> cls = AppOpsManager.class;
-        sCheckOpMethod = ReflectionUtils.getDeclaredMethod(cls, "checkOpNoThrow", int.class, int.class, String.class);
-        sNoteOpMethod = ReflectionUtils.getDeclaredMethod(cls, "noteOpNoThrow", int.class, int.class, String.class);
-        sSetModeMethod = ReflectionUtils.getDeclaredMethod(cls, "setMode", int.class, int.class, String.class, int.class);
+        sCheckOpMethod = ReflectedMethod.find(cls, "checkOpNoThrow", int.class, int.class, String.class);
+        sNoteOpMethod = ReflectedMethod.find(cls, "noteOpNoThrow", int.class, int.class, String.class);
+        sSetModeMethod = ReflectedMethod.find(cls, "setMode", int.class, int.class, String.class, int.class);
     }
 
     private AppOpsUtils() { }
@@ -28,13 +26,13 @@ public final class AppOpsUtils {
 
     public static boolean checkOp(Context context, int opCode, int uid, String packageName) {
         AppOpsManager appOpsManager = getAppOpsManager(context);
-        int result = (Integer)ReflectionUtils.invoke(sCheckOpMethod, appOpsManager, opCode, uid, packageName);
+        int result = sCheckOpMethod.invokeInt(appOpsManager, opCode, uid, packageName);
         return result == AppOpsManager.MODE_ALLOWED;
     }
 
     public static boolean noteOp(Context context, int opCode, int uid, String packageName) {
         AppOpsManager appOpsManager = getAppOpsManager(context);
-        int result = (Integer)ReflectionUtils.invoke(sNoteOpMethod, appOpsManager, opCode, uid, packageName);
+        int result = sNoteOpMethod.invokeInt(appOpsManager, opCode, uid, packageName);
         return result == AppOpsManager.MODE_ALLOWED;
     }
 
@@ -46,6 +44,6 @@ public final class AppOpsUtils {
 
     public static void allowOp(Context context, int opCode, int uid, String packageName) {
         AppOpsManager appOpsManager = getAppOpsManager(context);
-        ReflectionUtils.invoke(sSetModeMethod, appOpsManager, opCode, uid, packageName, AppOpsManager.MODE_ALLOWED);
+        sSetModeMethod.invoke(appOpsManager, opCode, uid, packageName, AppOpsManager.MODE_ALLOWED);
     }
 }
@@ -0,0 +1,46 @@
+package com.crossbowffs.nekosms.utils;
+
+import java.lang.reflect.Field;
+
+/**
+ * The field counterpart to {@link ReflectedMethod}, with the same
+ * failure handling: looking it up never throws, reading it does.
+ */
+public final class ReflectedField {
+    private final String mName;
+    private final Field mField;
+
+    private ReflectedField(String name, Field field) {
+        mName = name;
+        mField = field;
+    }
+
+    public static ReflectedField find(Class<?> cls, String fieldName) {
+        String name = cls.getSimpleName() + "." + fieldName;
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return new ReflectedField(name, field);
+            } catch (NoSuchFieldException e) {
+                // Try the superclass
+            } catch (Exception e) {
+                Xlog.e("Could not access %s field", name, e);
+                return new ReflectedField(name, null);
+            }
+        }
+        Xlog.e("Could not find %s field", name);
+        return new ReflectedField(name, null);
+    }
+
+    public boolean isAvailable() {
+        return mField != null;
+    }
+
+    public Object get(Object object) {
+        if (mField == null) {
+            throw new IllegalStateException(mName + " not found");
+        }
+        return ReflectionUtils.getFieldValue(mField, object);
+    }
+}
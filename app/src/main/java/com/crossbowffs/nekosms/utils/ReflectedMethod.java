@@ -0,0 +1,57 @@
+package com.crossbowffs.nekosms.utils;
+
+import java.lang.reflect.Method;
+
+/**
+ * A hidden or private method that is looked up once and then called
+ * many times. Looking it up never throws: if the method is missing,
+ * that is logged once, and {@link #isAvailable()} returns false, so
+ * callers can check for it once up front. Calling it throws the same
+ * exceptions as {@link ReflectionUtils#invoke}.
+ */
+public final class ReflectedMethod {
+    private final String mName;
+    private final Method mMethod;
+
+    private ReflectedMethod(String name, Method method) {
+        mName = name;
+        mMethod = method;
+    }
+
+    public static ReflectedMethod find(Class<?> cls, String methodName, Class<?>... paramTypes) {
+        // Also searches the superclasses, since hidden methods are
+        // often declared in a base class of the one we have.
+        String name = cls.getSimpleName() + "." + methodName + "()";
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            try {
+                Method method = c.getDeclaredMethod(methodName, paramTypes);
+                method.setAccessible(true);
+                return new ReflectedMethod(name, method);
+            } catch (NoSuchMethodException e) {
+                // Try the superclass
+            } catch (Exception e) {
+                Xlog.e("Could not access %s method", name, e);
+                return new ReflectedMethod(name, null);
+            }
+        }
+        Xlog.e("Could not find %s method", name);
+        return new ReflectedMethod(name, null);
+    }
+
+    public boolean isAvailable() {
+        return mMethod != null;
+    }
+
+    public Object invoke(Object thisObject, Object... args) {
+        if (mMethod == null) {
+            throw new IllegalStateException(mName + " not found");
+        }
+        return ReflectionUtils.invoke(mMethod, thisObject, args);
+    }
+
+    public int invokeInt(Object thisObject, Object... args) {
+        // The boxed result of a small int comes from the Integer
+        // cache, so for most methods this does not allocate.
+        return ((Number)invoke(thisObject, args)).intValue();
+    }
+}
@@ -5,23 +5,17 @@ import android.os.Build;
 import android.provider.Telephony;
 import android.telephony.SmsMessage;
 
-import java.lang.reflect.Method;
-
 public final class SmsMessageUtils {
     private static final int SMS_CHARACTER_LIMIT = 160;
 
-    private static final Method sGetSubId;
+    private static final ReflectedMethod sGetSubId;
 
     static {
-        Method getSubId = null;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
-            try {
-                getSubId = ReflectionUtils.getDeclaredMethod(SmsMessage.class, "getSubId");
-            } catch (Exception e) {
-                Xlog.e("Could not find SmsMessage.getSubId() method");
-            }
+            sGetSubId = ReflectedMethod.find(SmsMessage.class, "getSubId");
+        } else {
+            sGetSubId = null;
         }
-        sGetSubId = getSubId;
     }
 
     private SmsMessageUtils() { }
@@ -31,14 +25,15 @@ public final class SmsMessageUtils {
     }
 
     public static int getSubId(SmsMessage message) {
+        if (sGetSubId == null || !sGetSubId.isAvailable()) {
+            return 0;
+        }
         try {
-            if (sGetSubId != null) {
-                return (Integer)ReflectionUtils.invoke(sGetSubId, message);
-            }
+            return sGetSubId.invokeInt(message);
         } catch (Exception e) {
             Xlog.e("Failed to get SMS subscription ID", e);
+            return 0;
         }
-        return 0;
     }
 
     public static String getMessageBody(SmsMessage[] messageParts) {
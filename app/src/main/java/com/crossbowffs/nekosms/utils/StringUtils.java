@@ -3,51 +3,33 @@ package com.crossbowffs.nekosms.utils;
 public final class StringUtils {
     private StringUtils() { }
 
-    public static boolean equals(String a, String b, boolean ignoreCase) {
-        if (ignoreCase) {
-            return a.equalsIgnoreCase(b);
-        } else {
-            return a.equals(b);
-        }
-    }
-
-    public static boolean startsWith(String haystack, String needle, boolean ignoreCase) {
-        if (!ignoreCase) {
-            return haystack.startsWith(needle);
-        }
-        return haystack.regionMatches(true, 0, needle, 0, needle.length());
-    }
-
-    public static boolean endsWith(String haystack, String needle, boolean ignoreCase) {
-        if (!ignoreCase) {
-            return haystack.endsWith(needle);
-        }
-        return haystack.regionMatches(true, haystack.length() - needle.length(), needle, 0, needle.length());
+    public static char foldCase(char c) {
+        // This is the same per-character comparison that
+        // String#regionMatches and String#equalsIgnoreCase use,
+        // so two folded strings are equal if and only if the
+        // original strings are equal ignoring case.
+        return Character.toLowerCase(Character.toUpperCase(c));
     }
 
-    public static boolean contains(String haystack, String needle, boolean ignoreCase) {
-        if (!ignoreCase) {
-            return haystack.contains(needle);
+    public static String foldCase(String str) {
+        // Most senders (phone numbers) and a lot of message bodies
+        // (e.g. CJK text) are not changed by folding, so avoid
+        // making a copy unless we have to.
+        int length = str.length();
+        int start = 0;
+        while (start < length && foldCase(str.charAt(start)) == str.charAt(start)) {
+            start++;
         }
-
-        if (needle.length() == 0) {
-            return true;
+        if (start == length) {
+            return str;
         }
 
-        char needleFirstLower = Character.toLowerCase(needle.charAt(0));
-        char needleFirstUpper = Character.toUpperCase(needle.charAt(0));
-        int end = haystack.length() - needle.length();
-
-        for (int i = 0; i <= end; ++i) {
-            char c = haystack.charAt(i);
-            if (c == needleFirstLower || c == needleFirstUpper) {
-                if (haystack.regionMatches(true, i, needle, 0, needle.length())) {
-                    return true;
-                }
-            }
+        char[] chars = new char[length];
+        str.getChars(0, start, chars, 0);
+        for (int i = start; i < length; ++i) {
+            chars[i] = foldCase(str.charAt(i));
         }
-
-        return false;
+        return new String(chars);
     }
 
     public static String join(String delimiter, Object[] parts) {
@@ -10,8 +10,20 @@ public final class Xlog {
 
     private Xlog() { }
 
+    /**
+     * Returns whether messages of the given priority are logged.
+     * Callers on hot paths should check this before calling a log
+     * method, since the arguments (and the varargs array holding
+     * them) are otherwise created even if nothing gets logged.
+     * The level is a compile-time constant, so the check and the
+     * code it guards are removed from builds that don't log it.
+     */
+    public static boolean isLoggable(int priority) {
+        return priority >= LOG_LEVEL;
+    }
+
     private static void log(int priority, String message, Object... args) {
-        if (priority < LOG_LEVEL) {
+        if (!isLoggable(priority)) {
             return;
         }
 
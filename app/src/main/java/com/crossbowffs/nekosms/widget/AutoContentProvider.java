@@ -11,6 +11,7 @@ import androidx.annotation.NonNull;
 import android.text.TextUtils;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 
 public abstract class AutoContentProvider extends ContentProvider {
     protected static class ProviderTable {
@@ -25,11 +26,19 @@ public abstract class AutoContentProvider extends ContentProvider {
         }
     }
 
+    private final String mAuthority;
     private final ProviderTable[] mTables;
     private final UriMatcher mUriMatcher;
     private SQLiteOpenHelper mDatabaseHelper;
 
+    // Tables changed by the batch running on the current thread, if
+    // any. Once it commits, each table gets one onTableChanged() call
+    // and one notification. Neither can happen before the commit, or
+    // someone reacting to them might still see the old rows.
+    private final ThreadLocal<LinkedHashSet<String>> mBatchChangedTables = new ThreadLocal<>();
+
     public AutoContentProvider(String authority, ProviderTable[] tables) {
+        mAuthority = authority;
         mTables = tables;
         mUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         for (int i = 0; i < tables.length; ++i) {
@@ -81,7 +90,7 @@ public abstract class AutoContentProvider extends ContentProvider {
         long row = db.insert(getTableName(matchCode), null, values);
         Uri newUri = ContentUris.withAppendedId(uri, row);
         if (row >= 0) {
-            getContext().getContentResolver().notifyChange(newUri, null);
+            tableChanged(newUri, getTableName(matchCode));
         }
         return newUri;
     }
@@ -95,17 +104,23 @@ public abstract class AutoContentProvider extends ContentProvider {
 
         String tableName = getTableName(matchCode);
         int successCount = 0;
-        ContentResolver contentResolver = getContext().getContentResolver();
         SQLiteDatabase db = getDatabase(true);
-        for (ContentValues values : bulkValues) {
-            long row = db.insert(tableName, null, values);
-            if (row >= 0) {
-                Uri newUri = ContentUris.withAppendedId(uri, row);
-                contentResolver.notifyChange(newUri, null);
-                successCount++;
+        db.beginTransaction();
+        try {
+            for (ContentValues values : bulkValues) {
+                long row = db.insert(tableName, null, values);
+                if (row >= 0) {
+                    successCount++;
+                }
             }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
 
+        if (successCount > 0) {
+            tableChanged(uri, tableName);
+        }
         return successCount;
     }
 
@@ -121,7 +136,7 @@ public abstract class AutoContentProvider extends ContentProvider {
         SQLiteDatabase db = getDatabase(true);
         int deletedRows = db.delete(getTableName(matchCode), selection, selectionArgs);
         if (selection == null || deletedRows > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            tableChanged(uri, getTableName(matchCode));
         }
         return deletedRows;
     }
@@ -138,7 +153,7 @@ public abstract class AutoContentProvider extends ContentProvider {
         SQLiteDatabase db = getDatabase(true);
         int updatedRows = db.update(getTableName(matchCode), values, selection, selectionArgs);
         if (updatedRows > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            tableChanged(uri, getTableName(matchCode));
         }
         return updatedRows;
     }
@@ -151,8 +166,13 @@ public abstract class AutoContentProvider extends ContentProvider {
         // This is technically taking advantage of an implementation detail -
         // it may be cleaner to create an overloaded version of the operation
         // methods that take the database as a parameter.
+        // Observers are only notified after the transaction commits,
+        // once per changed table instead of once per operation, so
+        // e.g. inserting many rows at once only triggers one reload.
         SQLiteDatabase db = getDatabase(true);
         ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        LinkedHashSet<String> changedTables = new LinkedHashSet<>();
+        mBatchChangedTables.set(changedTables);
         db.beginTransaction();
         try {
             for (int i = 0; i < results.length; ++i) {
@@ -161,10 +181,33 @@ public abstract class AutoContentProvider extends ContentProvider {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            mBatchChangedTables.remove();
+        }
+
+        ContentResolver contentResolver = getContext().getContentResolver();
+        for (String tableName : changedTables) {
+            onTableChanged(tableName);
+            contentResolver.notifyChange(getTableUri(tableName), null);
         }
         return results;
     }
 
+    private void tableChanged(Uri uri, String tableName) {
+        // Must only be called once the change has been committed
+        // (or is part of a batch, which handles it after commit).
+        LinkedHashSet<String> changedTables = mBatchChangedTables.get();
+        if (changedTables != null) {
+            changedTables.add(tableName);
+        } else {
+            onTableChanged(tableName);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private Uri getTableUri(String tableName) {
+        return Uri.parse(ContentResolver.SCHEME_CONTENT + "://" + mAuthority + "/" + tableName);
+    }
+
     private boolean isItemUri(int matchCode) {
         return matchCode % 2 == 1;
     }
@@ -184,6 +227,12 @@ public abstract class AutoContentProvider extends ContentProvider {
 
     protected abstract SQLiteOpenHelper createDatabaseHelper(Context context);
 
+    protected void onTableChanged(String tableName) {
+        // Called after a change to a table has been committed, but
+        // before observers are notified of the change. Subclasses may override this
+        // to invalidate any data derived from the table.
+    }
+
     protected SQLiteDatabase getDatabase(boolean write) {
         if (write) {
             return mDatabaseHelper.getWritableDatabase();
@@ -0,0 +1,384 @@
+package com.crossbowffs.nekosms.xposed;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import com.crossbowffs.nekosms.data.SmsMessageData;
+import com.crossbowffs.nekosms.utils.Xlog;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/* package */ class BlockedSmsJournal {
+    public interface Consumer {
+        /**
+         * Saves the messages to their final destination, all or none
+         * of them. Returns false (or throws) if they could not be
+         * saved and should be retried.
+         */
+        boolean consume(List<SmsMessageData> messages) throws Exception;
+    }
+
+    // Bump this whenever the record format below changes. Records
+    // with a different format are dropped, since we can't read them.
+    private static final int MAGIC = 0x4e4b4a52;
+    private static final int FORMAT_VERSION = 1;
+
+    // Records larger than this can only come from a corrupted length,
+    // since a single SMS (even a long multipart one) is much smaller.
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    // Each record starts with its length and a CRC32 of its contents
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+
+    // How long to collect messages before saving them, so that a
+    // burst of spam is saved (and notified about) in one go. Messages
+    // are on disk during this time, so this only delays notifications.
+    private static final long BATCH_DELAY_MS = 1000;
+
+    // Most messages saved in one transaction. Long messages also
+    // limit the batch by size, so that it stays well below the 1MB
+    // binder transaction limit (which is shared by the whole process).
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    // Rough parcel size of a message besides its text: the column
+    // names and the other values in its ContentValues.
+    private static final int MESSAGE_OVERHEAD_BYTES = 512;
+
+    private static final String JOURNAL_FILE = "nekosms_blocked.journal";
+    private static final String DRAINING_FILE = "nekosms_blocked.draining";
+
+    // How long to wait before trying to drain the journal again after
+    // a failure (e.g. the app was just updated), doubled after every
+    // failure up to the maximum. A new message retries with its batch.
+    private static final long MIN_RETRY_DELAY_MS = 5 * 1000;
+    private static final long MAX_RETRY_DELAY_MS = 60 * 60 * 1000;
+
+    private final File mJournalFile;
+    private final File mDrainingFile;
+    private final Consumer mConsumer;
+    private final HandlerThread mWorkerThread;
+    private final Handler mWorkerHandler;
+    private final Runnable mDrainRunnable;
+    private final Object mFileLock = new Object();
+    private final AtomicBoolean mBatchScheduled = new AtomicBoolean();
+    private long mRetryDelayMs = MIN_RETRY_DELAY_MS;
+
+    public BlockedSmsJournal(Context context, Consumer consumer) {
+        mJournalFile = new File(context.getFilesDir(), JOURNAL_FILE);
+        mDrainingFile = new File(context.getFilesDir(), DRAINING_FILE);
+        mConsumer = consumer;
+        mWorkerThread = new HandlerThread("NekoSMS-BlockedSmsJournal", Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+        mDrainRunnable = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        // Messages left over from before the phone process was
+        // restarted are saved as soon as possible.
+        recoverJournal();
+        scheduleDrain(0);
+    }
+
+    /**
+     * Appends the message to the journal and waits until it has been
+     * written to disk, so it is safe to drop the original afterwards.
+     * The message is saved to the consumer in the background,
+     * together with any other messages appended shortly after.
+     */
+    public void append(SmsMessageData message) throws IOException {
+        byte[] record = encodeRecord(message);
+        synchronized (mFileLock) {
+            try (FileOutputStream out = new FileOutputStream(mJournalFile, true)) {
+                out.write(record);
+                out.getFD().sync();
+            }
+        }
+
+        // The batch is not postponed by more messages, otherwise a
+        // steady stream of them would never get saved.
+        if (mBatchScheduled.compareAndSet(false, true)) {
+            scheduleDrain(BATCH_DELAY_MS);
+        }
+    }
+
+    private void recoverJournal() {
+        // If the phone process died while appending, the journal
+        // ends with a partial record. The message in it was never
+        // dropped, so it will be delivered again, but the record
+        // needs to be cut off before anything else is appended.
+        // Only the end of the file is cut off: a damaged record in
+        // the middle is skipped when reading, since the records after
+        // it are for messages that have already been dropped.
+        synchronized (mFileLock) {
+            if (!mJournalFile.exists()) {
+                return;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw")) {
+                long validLength = parseRecords(readFile(mJournalFile), new ArrayList<byte[]>());
+                if (validLength != file.length()) {
+                    Xlog.w("Truncating blocked message journal from %d to %d bytes", file.length(), validLength);
+                    file.setLength(validLength);
+                    file.getFD().sync();
+                }
+            } catch (IOException e) {
+                Xlog.e("Failed to recover blocked message journal", e);
+            }
+        }
+    }
+
+    private void scheduleDrain(long delayMs) {
+        mWorkerHandler.removeCallbacks(mDrainRunnable);
+        mWorkerHandler.postDelayed(mDrainRunnable, delayMs);
+    }
+
+    private void drain() {
+        // Any exception thrown here would take down the phone
+        // process. The journal is only ever truncated after its
+        // messages have been saved, so they can't be lost here.
+        mBatchScheduled.set(false);
+        try {
+            while (drainOnce()) {
+                mRetryDelayMs = MIN_RETRY_DELAY_MS;
+            }
+        } catch (Exception e) {
+            Xlog.e("Failed to drain blocked message journal, retrying in %d ms", mRetryDelayMs, e);
+            scheduleDrain(mRetryDelayMs);
+            mRetryDelayMs = Math.min(mRetryDelayMs * 2, MAX_RETRY_DELAY_MS);
+        }
+    }
+
+    private boolean drainOnce() throws Exception {
+        // The journal is moved out of the way before draining it,
+        // so new messages can be appended in the meantime. If the
+        // previous drain failed, it is finished before the next one.
+        synchronized (mFileLock) {
+            if (!mDrainingFile.exists()) {
+                if (!mJournalFile.exists()) {
+                    return false;
+                }
+                if (!mJournalFile.renameTo(mDrainingFile)) {
+                    throw new IOException("Failed to rename " + mJournalFile);
+                }
+            }
+        }
+
+        List<SmsMessageData> messages = readRecords(mDrainingFile);
+        Xlog.i("Saving %d journaled blocked messages", messages.size());
+        for (int i = 0, end; i < messages.size(); i = end) {
+            end = getBatchEnd(messages, i);
+            List<SmsMessageData> batch = messages.subList(i, end);
+            boolean consumed;
+            try {
+                consumed = mConsumer.consume(batch);
+            } catch (Exception e) {
+                Xlog.e("Failed to save journaled blocked messages", e);
+                consumed = false;
+            }
+
+            // Only keep the messages that haven't been saved yet, so
+            // a retry doesn't save the earlier ones a second time.
+            if (!consumed) {
+                writeRecords(mDrainingFile, messages.subList(i, messages.size()));
+                throw new IOException("Failed to save " + (messages.size() - i) + " blocked messages");
+            }
+        }
+
+        if (!mDrainingFile.delete()) {
+            throw new IOException("Failed to delete " + mDrainingFile);
+        }
+        return true;
+    }
+
+    private static int getBatchEnd(List<SmsMessageData> messages, int start) {
+        // A batch always has at least one message, even if that
+        // message alone is over the size limit.
+        int end = start;
+        int batchBytes = 0;
+        while (end < messages.size() && end - start < MAX_BATCH_SIZE) {
+            int messageBytes = getParcelSize(messages.get(end));
+            if (end > start && batchBytes + messageBytes > MAX_BATCH_BYTES) {
+                break;
+            }
+            batchBytes += messageBytes;
+            end++;
+        }
+        return end;
+    }
+
+    private static int getParcelSize(SmsMessageData message) {
+        // Strings are written to parcels as UTF-16
+        int length = 0;
+        if (message.getSender() != null) {
+            length += message.getSender().length();
+        }
+        if (message.getBody() != null) {
+            length += message.getBody().length();
+        }
+        return MESSAGE_OVERHEAD_BYTES + length * 2;
+    }
+
+    private static List<SmsMessageData> readRecords(File file) throws IOException {
+        ArrayList<byte[]> records = new ArrayList<>();
+        parseRecords(readFile(file), records);
+        ArrayList<SmsMessageData> messages = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            SmsMessageData message = decodeRecord(record);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] data = new byte[(int)file.length()];
+            in.readFully(data);
+            return data;
+        }
+    }
+
+    private static long parseRecords(byte[] data, List<byte[]> records) {
+        // Adds every valid record to the list, and returns the offset
+        // just past the last one. If a record is damaged, we look for
+        // the next valid one after it, byte by byte, instead of giving
+        // up on the rest of the file. Its checksum (and the magic
+        // number at the start of each record) makes it very unlikely
+        // that we mistake a piece of a damaged record for a real one.
+        int offset = 0;
+        int validEnd = 0;
+        int skipStart = -1;
+        while (offset + RECORD_HEADER_SIZE <= data.length) {
+            byte[] record = readRecord(data, offset);
+            if (record == null) {
+                if (skipStart < 0) {
+                    skipStart = offset;
+                }
+                offset++;
+                continue;
+            }
+            if (skipStart >= 0) {
+                Xlog.w("Skipped %d damaged bytes at offset %d in blocked message journal", offset - skipStart, skipStart);
+                skipStart = -1;
+            }
+            records.add(record);
+            offset += RECORD_HEADER_SIZE + record.length;
+            validEnd = offset;
+        }
+        if (validEnd != data.length) {
+            Xlog.w("Ignoring %d bytes after the last valid record in blocked message journal", data.length - validEnd);
+        }
+        return validEnd;
+    }
+
+    private static byte[] readRecord(byte[] data, int offset) {
+        // Returns null if there is no valid record at the offset
+        int length = readInt(data, offset);
+        if (length < 8 || length > MAX_RECORD_SIZE || length > data.length - offset - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int start = offset + RECORD_HEADER_SIZE;
+        if (readInt(data, start) != MAGIC) {
+            return null;
+        }
+        long checksum = ((long)readInt(data, offset + 4) << 32) | (readInt(data, offset + 8) & 0xffffffffL);
+        byte[] record = new byte[length];
+        System.arraycopy(data, start, record, 0, length);
+        if (checksum(record) != checksum) {
+            return null;
+        }
+        return record;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) |
+            ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static void writeRecords(File file, List<SmsMessageData> messages) throws IOException {
+        // Written to a temporary file first, so that the journal is
+        // never left half written if the phone process dies.
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            for (SmsMessageData message : messages) {
+                out.write(encodeRecord(message));
+            }
+            out.getFD().sync();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + tempFile);
+        }
+    }
+
+    private static long checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return crc.getValue();
+    }
+
+    private static byte[] encodeRecord(SmsMessageData message) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeInt(MAGIC);
+        bodyOut.writeInt(FORMAT_VERSION);
+        writeString(bodyOut, message.getSender());
+        writeString(bodyOut, message.getBody());
+        bodyOut.writeLong(message.getTimeSent());
+        bodyOut.writeLong(message.getTimeReceived());
+        bodyOut.writeInt(message.getSubId());
+        bodyOut.flush();
+        byte[] record = body.toByteArray();
+
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(record.length + RECORD_HEADER_SIZE);
+        DataOutputStream framedOut = new DataOutputStream(framed);
+        framedOut.writeInt(record.length);
+        framedOut.writeLong(checksum(record));
+        framedOut.write(record);
+        framedOut.flush();
+        return framed.toByteArray();
+    }
+
+    private static SmsMessageData decodeRecord(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            Xlog.w("Skipping blocked message journal record with unknown format");
+            return null;
+        }
+        return new SmsMessageData()
+            .setSender(readString(in))
+            .setBody(readString(in))
+            .setTimeSent(in.readLong())
+            .setTimeReceived(in.readLong())
+            .setSubId(in.readInt());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,168 @@
+package com.crossbowffs.nekosms.xposed;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.ContactsContract;
+import android.util.LruCache;
+import com.crossbowffs.nekosms.filters.PhoneNumberKey;
+import com.crossbowffs.nekosms.filters.PhoneNumberSet;
+import com.crossbowffs.nekosms.filters.SmsMatchContext;
+import com.crossbowffs.nekosms.utils.ContactUtils;
+import com.crossbowffs.nekosms.utils.Xlog;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/* package */ class ContactCache {
+    // How long to wait for more changes before reloading. Syncing
+    // an account can change thousands of contacts in a row, and we
+    // only want to reload once at the end.
+    private static final long RELOAD_DELAY_MS = 1000;
+
+    // How many senders to remember the PhoneLookup result for,
+    // for numbers that are not in the cached set.
+    private static final int LOOKUP_CACHE_SIZE = 64;
+
+    private final Context mContext;
+    private final HandlerThread mWorkerThread;
+    private final Handler mWorkerHandler;
+    private final Runnable mReloadRunnable;
+    private final ContentObserver mContentObserver;
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+
+    // The numbers of all contacts, in the same form as number lists,
+    // so that a sender is matched the same way as by a number rule.
+    // The old set keeps being used until the new one is ready.
+    private final AtomicReference<PhoneNumberSet> mNumbers = new AtomicReference<>();
+
+    // Lookups that started before the contacts changed must not be
+    // cached, since their result might already be out of date.
+    private final LruCache<String, Boolean> mLookupCache = new LruCache<>(LOOKUP_CACHE_SIZE);
+    private final AtomicInteger mLookupGeneration = new AtomicInteger();
+
+    public ContactCache(Context context) {
+        mContext = context;
+        mWorkerThread = new HandlerThread("NekoSMS-ContactCache", Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+        mReloadRunnable = new Runnable() {
+            @Override
+            public void run() {
+                reloadNumbers();
+            }
+        };
+        mContentObserver = registerContentObserver();
+    }
+
+    public void close() {
+        mContext.getContentResolver().unregisterContentObserver(mContentObserver);
+        mWorkerHandler.removeCallbacks(mReloadRunnable);
+        mWorkerThread.quit();
+        mNumbers.set(null);
+        mLookupCache.evictAll();
+    }
+
+    public boolean isContact(SmsMatchContext context) {
+        // Contacts are only loaded once the contact whitelist is
+        // actually used. Until then, and for senders that are not
+        // in the set, ask the contacts provider directly. A number
+        // that is formatted differently from the contact might still
+        // be considered a match by PhoneLookup, so a miss in the set
+        // alone is not enough to say the sender is not a contact.
+        if (mStarted.compareAndSet(false, true)) {
+            scheduleReload(0);
+        }
+
+        PhoneNumberSet numbers = mNumbers.get();
+        PhoneNumberKey number = context.getSenderNumber();
+        if (numbers != null && number != null && numbers.contains(number)) {
+            return true;
+        }
+
+        String sender = context.getSender();
+        Boolean cached = mLookupCache.get(sender);
+        if (cached != null) {
+            return cached;
+        }
+
+        int generation = mLookupGeneration.get();
+        boolean isContact = ContactUtils.isContact(mContext, sender);
+        if (generation == mLookupGeneration.get()) {
+            mLookupCache.put(sender, isContact);
+        }
+        return isContact;
+    }
+
+    private void scheduleReload(long delayMs) {
+        mWorkerHandler.removeCallbacks(mReloadRunnable);
+        mWorkerHandler.postDelayed(mReloadRunnable, delayMs);
+    }
+
+    private void reloadNumbers() {
+        // Any exception thrown here would take down the phone
+        // process. If loading fails, the previous set (if any)
+        // is kept, and lookups go to the contacts provider.
+        Xlog.i("Reloading contact numbers in background");
+        try {
+            PhoneNumberSet numbers = queryNumbers();
+            if (numbers != null) {
+                mNumbers.set(numbers);
+                Xlog.i("Loaded %d contact numbers", numbers.size());
+            }
+        } catch (Exception e) {
+            Xlog.e("Failed to load contact numbers", e);
+        }
+    }
+
+    private PhoneNumberSet queryNumbers() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        String[] projection = {ContactsContract.CommonDataKinds.Phone.NUMBER};
+        try (Cursor cursor = contentResolver.query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI, projection, null, null, null)) {
+            if (cursor == null) {
+                Xlog.e("Failed to load contact numbers (query returned null)");
+                return null;
+            }
+
+            long[] keys = new long[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext()) {
+                String value = cursor.getString(0);
+                PhoneNumberKey number = (value == null) ? null : PhoneNumberKey.parse(value);
+                long key = (number == null) ? -1 : PhoneNumberSet.encode(number);
+                if (key >= 0 && count < keys.length) {
+                    keys[count++] = key;
+                }
+            }
+            return PhoneNumberSet.fromKeys(keys, count);
+        }
+    }
+
+    private ContentObserver registerContentObserver() {
+        Xlog.i("Registering contacts content observer");
+
+        ContentObserver contentObserver = new ContentObserver(mWorkerHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // Cached lookups are dropped right away, since a new
+                // contact should not be blocked in the meantime. The
+                // set is only reloaded if it has been loaded before.
+                mLookupGeneration.incrementAndGet();
+                mLookupCache.evictAll();
+                if (mStarted.get()) {
+                    Xlog.i("Contacts updated, reloading contact numbers");
+                    scheduleReload(RELOAD_DELAY_MS);
+                }
+            }
+        };
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(ContactsContract.AUTHORITY_URI, true, contentObserver);
+        return contentObserver;
+    }
+}
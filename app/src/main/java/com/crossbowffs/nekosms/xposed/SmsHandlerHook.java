@@ -4,6 +4,8 @@ import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
@@ -12,11 +14,15 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.UserHandle;
 import android.provider.Telephony;
+import android.telephony.SmsMessage;
+import android.util.Log;
 import com.crossbowffs.nekosms.BuildConfig;
 import com.crossbowffs.nekosms.consts.BroadcastConsts;
 import com.crossbowffs.nekosms.consts.PreferenceConsts;
+import com.crossbowffs.nekosms.data.SmsDecisionReason;
 import com.crossbowffs.nekosms.data.SmsMessageData;
 import com.crossbowffs.nekosms.filters.SmsFilterLoader;
+import com.crossbowffs.nekosms.filters.SmsMatchContext;
 import com.crossbowffs.nekosms.loader.BlockedSmsLoader;
 import com.crossbowffs.nekosms.utils.*;
 import com.crossbowffs.remotepreferences.RemotePreferenceAccessException;
@@ -27,7 +33,10 @@ import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
 
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 public class SmsHandlerHook implements IXposedHookLoadPackage {
     private class ConstructorHook extends XC_MethodHook {
@@ -63,21 +72,40 @@ public class SmsHandlerHook implements IXposedHookLoadPackage {
     private static final String NEKOSMS_PACKAGE = BuildConfig.APPLICATION_ID;
     private static final String TELEPHONY_PACKAGE = "com.android.internal.telephony";
     private static final String SMS_HANDLER_CLASS = TELEPHONY_PACKAGE + ".InboundSmsHandler";
+    private static final String SMS_RECEIVER_CLASS = SMS_HANDLER_CLASS + "$SmsBroadcastReceiver";
     private static final int MARK_DELETED = 2;
     private static final int EVENT_BROADCAST_COMPLETE = 3;
 
+    // Whether to write blocked messages to a journal file in the phone
+    // process instead of saving them to the app's database right away.
+    // The database insert (which may need to start the app process)
+    // then happens in the background, instead of holding up the SMS
+    // handler. The message is on disk either way before we drop it.
+    private static final boolean JOURNAL_BLOCKED_MESSAGES = true;
+
     private Context mContext;
     private SmsFilterLoader mFilterLoader;
+    private ContactCache mContactCache;
+    private BlockedSmsJournal mBlockedSmsJournal;
     private RemotePreferences mPreferences;
 
-    private static Object callDeclaredMethod(String clsName, Object obj, String methodName, Object... args) {
-        // Unlike Xposed's built-in callMethod, this one searches
-        // for private methods as well, in the specified class
-        // (which must be assignable from the object).
-        Class<?> cls = XposedHelpers.findClass(clsName, obj.getClass().getClassLoader());
-        Method method = XposedHelpers.findMethodBestMatch(cls, methodName, args);
-        return ReflectionUtils.invoke(method, obj, args);
-    }
+    // All preferences are read at once and kept until they change,
+    // so that handling a message doesn't need a provider call for
+    // every setting. RemotePreferences only holds weak references
+    // to its listeners, so we need to keep our own reference.
+    private final Object mPreferenceLock = new Object();
+    private Map<String, ?> mPreferenceSnapshot;
+    private int mPreferenceVersion;
+    private SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener;
+
+    // The internal methods and fields used to drop a blocked message,
+    // looked up once when the first SMS handler is created. If any of
+    // them can't be found, we can't drop messages on this system, so
+    // all messages are allowed instead of failing during delivery.
+    private ReflectedMethod mDeleteFromRawTableMethod;
+    private ReflectedMethod mSendMessageMethod;
+    private ReflectedField mDeleteWhereField;
+    private ReflectedField mDeleteWhereArgsField;
 
     private void grantWriteSmsPermissions(Context context) {
         // We need to grant OP_WRITE_SMS permissions to the app
@@ -113,18 +141,48 @@ public class SmsHandlerHook implements IXposedHookLoadPackage {
         }
     }
 
+    private void resolveSmsHandlerMembers(ClassLoader classLoader) {
+        // Superclasses are searched as well (sendMessage() is
+        // declared in StateMachine). Missing members are logged
+        // here, and make canDropMessages() return false.
+        Class<?> smsHandlerClass = XposedHelpers.findClass(SMS_HANDLER_CLASS, classLoader);
+        Class<?> smsReceiverClass = XposedHelpers.findClass(SMS_RECEIVER_CLASS, classLoader);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mDeleteFromRawTableMethod = ReflectedMethod.find(smsHandlerClass, "deleteFromRawTable",
+                /*     deleteWhere */ String.class,
+                /* deleteWhereArgs */ String[].class,
+                /*      deleteType */ int.class);
+        } else {
+            mDeleteFromRawTableMethod = ReflectedMethod.find(smsHandlerClass, "deleteFromRawTable",
+                /*     deleteWhere */ String.class,
+                /* deleteWhereArgs */ String[].class);
+        }
+        mSendMessageMethod = ReflectedMethod.find(smsHandlerClass, "sendMessage",
+            /* what */ int.class);
+        mDeleteWhereField = ReflectedField.find(smsReceiverClass, "mDeleteWhere");
+        mDeleteWhereArgsField = ReflectedField.find(smsReceiverClass, "mDeleteWhereArgs");
+    }
+
+    private boolean canDropMessages() {
+        // All null if the classes themselves could not be found
+        return mDeleteFromRawTableMethod != null && mDeleteFromRawTableMethod.isAvailable() &&
+            mSendMessageMethod.isAvailable() &&
+            mDeleteWhereField.isAvailable() &&
+            mDeleteWhereArgsField.isAvailable();
+    }
+
     private void deleteFromRawTable19(Object smsHandler, Object smsReceiver) {
         Xlog.i("Removing raw SMS data from database for Android v19+");
-        callDeclaredMethod(SMS_HANDLER_CLASS, smsHandler, "deleteFromRawTable",
-            /*     deleteWhere */ XposedHelpers.getObjectField(smsReceiver, "mDeleteWhere"),
-            /* deleteWhereArgs */ XposedHelpers.getObjectField(smsReceiver, "mDeleteWhereArgs"));
+        mDeleteFromRawTableMethod.invoke(smsHandler,
+            /*     deleteWhere */ mDeleteWhereField.get(smsReceiver),
+            /* deleteWhereArgs */ mDeleteWhereArgsField.get(smsReceiver));
     }
 
     private void deleteFromRawTable24(Object smsHandler, Object smsReceiver) {
         Xlog.i("Removing raw SMS data from database for Android v24+");
-        callDeclaredMethod(SMS_HANDLER_CLASS, smsHandler, "deleteFromRawTable",
-            /*     deleteWhere */ XposedHelpers.getObjectField(smsReceiver, "mDeleteWhere"),
-            /* deleteWhereArgs */ XposedHelpers.getObjectField(smsReceiver, "mDeleteWhereArgs"),
+        mDeleteFromRawTableMethod.invoke(smsHandler,
+            /*     deleteWhere */ mDeleteWhereField.get(smsReceiver),
+            /* deleteWhereArgs */ mDeleteWhereArgsField.get(smsReceiver),
             /*      deleteType */ MARK_DELETED);
     }
 
@@ -138,7 +196,7 @@ public class SmsHandlerHook implements IXposedHookLoadPackage {
 
     private void sendBroadcastComplete(Object smsHandler) {
         Xlog.i("Notifying completion of SMS broadcast");
-        XposedHelpers.callMethod(smsHandler, "sendMessage",
+        mSendMessageMethod.invoke(smsHandler,
             /* what */ EVENT_BROADCAST_COMPLETE);
     }
 
@@ -166,13 +224,125 @@ public class SmsHandlerHook implements IXposedHookLoadPackage {
         mContext.sendBroadcast(intent);
     }
 
-    private boolean getBooleanPref(String key, boolean defValue) {
+    private void broadcastBlockedSms(ArrayList<Uri> messageUris) {
+        // A single broadcast for the whole batch, so the app can
+        // show one notification for all of them.
+        Intent intent = new Intent(BroadcastConsts.ACTION_RECEIVE_SMS);
+        intent.setComponent(new ComponentName(NEKOSMS_PACKAGE, BroadcastConsts.RECEIVER_NAME));
+        intent.putParcelableArrayListExtra(BroadcastConsts.EXTRA_MESSAGES, messageUris);
+        mContext.sendBroadcast(intent);
+    }
+
+    private boolean saveBlockedSms(SmsMessageData message) {
+        Uri messageUri = BlockedSmsLoader.get().insert(mContext, message);
+        broadcastBlockedSms(messageUri);
+        return messageUri != null;
+    }
+
+    private boolean saveBlockedSms(List<SmsMessageData> messages) {
+        List<Uri> messageUris = BlockedSmsLoader.get().insertAll(mContext, messages);
+        if (messageUris == null) {
+            return false;
+        }
+        Xlog.i("Saved %d blocked messages", messageUris.size());
+        if (!messageUris.isEmpty()) {
+            broadcastBlockedSms(new ArrayList<>(messageUris));
+        }
+        return true;
+    }
+
+    private void persistBlockedSms(SmsMessageData message) {
+        // If the journal can't be written to for whatever reason,
+        // save the message directly like we would without it.
+        if (JOURNAL_BLOCKED_MESSAGES) {
+            try {
+                mBlockedSmsJournal.append(message);
+                return;
+            } catch (Exception e) {
+                Xlog.e("Failed to journal blocked message, saving directly", e);
+            }
+        }
+        saveBlockedSms(message);
+    }
+
+    private Map<String, ?> getPreferences() {
+        int version;
+        synchronized (mPreferenceLock) {
+            if (mPreferenceSnapshot != null) {
+                return mPreferenceSnapshot;
+            }
+            version = mPreferenceVersion;
+        }
+
+        // If reading fails (e.g. the app was uninstalled), fall back
+        // to the defaults for this message, and try again next time.
+        Map<String, ?> preferences;
         try {
-            return mPreferences.getBoolean(key, defValue);
+            preferences = mPreferences.getAll();
         } catch (RemotePreferenceAccessException e) {
-            Xlog.e("Failed to read preference: %s", key, e);
-            return defValue;
+            Xlog.e("Failed to read preferences", e);
+            return Collections.emptyMap();
+        }
+
+        // Don't cache the result if the preferences changed while
+        // we were reading them, it might already be out of date.
+        synchronized (mPreferenceLock) {
+            if (version == mPreferenceVersion) {
+                mPreferenceSnapshot = preferences;
+            }
+        }
+        return preferences;
+    }
+
+    private void invalidatePreferences() {
+        synchronized (mPreferenceLock) {
+            mPreferenceSnapshot = null;
+            mPreferenceVersion++;
+        }
+    }
+
+    private boolean getBooleanPref(String key, boolean defValue) {
+        Object value = getPreferences().get(key);
+        if (value instanceof Boolean) {
+            return (Boolean)value;
         }
+        return defValue;
+    }
+
+    private void registerPreferenceListener() {
+        Xlog.i("Registering preference change listener");
+        mPreferenceListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                Xlog.i("Preference changed: %s", key);
+                invalidatePreferences();
+            }
+        };
+        mPreferences.registerOnSharedPreferenceChangeListener(mPreferenceListener);
+    }
+
+    private void registerPackageReceiver(Context context) {
+        // Uninstalling the app or clearing its data does not notify
+        // the preference listener, so listen for those separately.
+        // Otherwise we would keep using the old settings.
+        Xlog.i("Registering preference package state receiver");
+
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                if (data != null && NEKOSMS_PACKAGE.equals(data.getSchemeSpecificPart())) {
+                    Xlog.i("App package state changed, resetting preferences");
+                    invalidatePreferences();
+                }
+            }
+        };
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_DATA_CLEARED);
+        filter.addDataScheme("package");
+        context.registerReceiver(receiver, filter);
     }
 
     private void afterConstructorHandler(XC_MethodHook.MethodHookParam param) {
@@ -180,11 +350,27 @@ public class SmsHandlerHook implements IXposedHookLoadPackage {
         if (mContext == null) {
             mContext = context;
             mFilterLoader = new SmsFilterLoader(context);
+            mContactCache = new ContactCache(context);
+            if (JOURNAL_BLOCKED_MESSAGES) {
+                mBlockedSmsJournal = new BlockedSmsJournal(context, new BlockedSmsJournal.Consumer() {
+                    @Override
+                    public boolean consume(List<SmsMessageData> messages) {
+                        return saveBlockedSms(messages);
+                    }
+                });
+            }
             mPreferences = new RemotePreferences(context,
                 PreferenceConsts.REMOTE_PREFS_AUTHORITY,
                 PreferenceConsts.FILE_MAIN,
                 true);
+            registerPreferenceListener();
+            registerPackageReceiver(context);
             grantWriteSmsPermissions(context);
+            try {
+                resolveSmsHandlerMembers(param.thisObject.getClass().getClassLoader());
+            } catch (Throwable e) {
+                Xlog.e("Failed to find SMS handler internals, messages will not be blocked", e);
+            }
         }
     }
 
@@ -204,16 +390,38 @@ public class SmsHandlerHook implements IXposedHookLoadPackage {
             return;
         }
 
-        SmsMessageData message = SmsMessageData.fromIntent(intent);
+        // Without these, a blocked message could not be dropped, so
+        // there is no point in filtering it (see afterConstructorHandler)
+        if (!canDropMessages()) {
+            Xlog.e("SMS handler internals not found, allowing message");
+            return;
+        }
+
+        // The body is only assembled (and normalized) once something
+        // asks for it, which for most messages decided by the sender
+        // alone is never. Blocked messages always need it to be saved.
+        final SmsMessage[] messageParts = SmsMessageUtils.fromIntent(intent);
+        final SmsMessageData message = SmsMessageData.fromMessageParts(messageParts);
         String sender = message.getSender();
-        String body = message.getBody();
+
+        // The context caches the derived forms of the sender and
+        // body (e.g. case folded), so every rule can share them.
+        SmsMatchContext matchContext = new SmsMatchContext(sender, new SmsMatchContext.BodyLoader() {
+            @Override
+            public String loadBody() {
+                String body = SmsMessageData.readBody(messageParts);
+                message.setBody(body);
+                return body;
+            }
+        }, message.getSubId());
+
         Xlog.i("Received a new SMS message");
         if (getBooleanPref(PreferenceConsts.KEY_VERBOSE_LOGGING, PreferenceConsts.KEY_VERBOSE_LOGGING_DEFAULT)) {
             Xlog.i("Sender: %s", StringUtils.escape(sender));
-            Xlog.i("Body: %s", StringUtils.escape(body));
-        } else {
+            Xlog.i("Body: %s", StringUtils.escape(matchContext.getBody()));
+        } else if (Xlog.isLoggable(Log.VERBOSE)) {
             Xlog.v("Sender: %s", StringUtils.escape(sender));
-            Xlog.v("Body: %s", StringUtils.escape(body));
+            Xlog.v("Body: %s", StringUtils.escape(matchContext.getBody()));
         }
 
         // Skip if "whitelist contacts" is enabled and the message
@@ -222,22 +430,30 @@ public class SmsHandlerHook implements IXposedHookLoadPackage {
         boolean allowContacts = getBooleanPref(
             PreferenceConsts.KEY_WHITELIST_CONTACTS,
             PreferenceConsts.KEY_WHITELIST_CONTACTS_DEFAULT);
-        if (allowContacts && ContactUtils.isContact(mContext, sender)) {
-            Xlog.i("Allowing message (contact whitelist)");
-            return;
+        if (allowContacts) {
+            long startTime = System.nanoTime();
+            if (mContactCache.isContact(matchContext)) {
+                Xlog.i("Allowing message (contact whitelist)");
+                mFilterLoader.getDecisionTrace().record(matchContext,
+                    SmsDecisionReason.CONTACT, -1, System.nanoTime() - startTime);
+                return;
+            }
         }
 
-        if (!mFilterLoader.shouldBlockMessage(sender, body)) {
+        if (!mFilterLoader.shouldBlockMessage(matchContext)) {
             return;
         }
 
-        // Order is important here! First, save a copy of the message to
-        // the blocked message list and notify everyone about it. THEN,
-        // we can delete the original. If it were the other way around,
-        // any bug in our code would cause the message to disappear. This
-        // way, the worst that can happen is that the user gets two copies.
-        Uri messageUri = BlockedSmsLoader.get().insert(mContext, message);
-        broadcastBlockedSms(messageUri);
+        // Fills in the message body, if no rule needed it
+        matchContext.getBody();
+
+        // Order is important here! First, save a copy of the message
+        // (either to the journal, or directly to the blocked message
+        // list). THEN, we can delete the original. If it were the other
+        // way around, any bug in our code would cause the message to
+        // disappear. This way, the worst that can happen is that the
+        // user gets two copies.
+        persistBlockedSms(message);
         finishSmsBroadcast(param.thisObject, param.args[receiverIndex]);
         param.setResult(null);
     }
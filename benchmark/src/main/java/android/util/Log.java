@@ -0,0 +1,31 @@
+package android.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+// Minimal stand-in for the Android logger, so that Xlog
+// can be used by the benchmarks. Everything goes to stderr.
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    private Log() { }
+
+    public static int println(int priority, String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static String getStackTraceString(Throwable tr) {
+        if (tr == null) {
+            return "";
+        }
+        StringWriter sw = new StringWriter();
+        tr.printStackTrace(new PrintWriter(sw));
+        return sw.toString();
+    }
+}
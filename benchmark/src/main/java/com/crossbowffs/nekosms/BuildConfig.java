@@ -0,0 +1,13 @@
+package com.crossbowffs.nekosms;
+
+// Stand-in for the generated BuildConfig, containing only the
+// fields used by the filter engine. Logging is kept at warnings
+// and above so that it does not show up in the results.
+public final class BuildConfig {
+    public static final boolean DEBUG = false;
+    public static final String LOG_TAG = "NekoSMS";
+    public static final int LOG_LEVEL = 5;
+    public static final boolean LOG_TO_XPOSED = false;
+
+    private BuildConfig() { }
+}
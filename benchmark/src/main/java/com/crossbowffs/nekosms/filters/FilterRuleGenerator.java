@@ -0,0 +1,149 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterAction;
+import com.crossbowffs.nekosms.data.SmsFilterData;
+import com.crossbowffs.nekosms.data.SmsFilterMode;
+import com.crossbowffs.nekosms.data.SmsFilterPatternData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/* package */ final class FilterRuleGenerator {
+    private FilterRuleGenerator() { }
+
+    public static List<SmsFilterData> generate(Random random, SmsFilterMode mode, int count) {
+        // Roughly what a real rule list looks like: mostly
+        // blacklist rules, mostly on the body, some on the
+        // sender and a few on both.
+        List<SmsFilterData> filters = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            SmsFilterData data = new SmsFilterData();
+            data.setId(i + 1);
+            data.setAction(random.nextInt(20) == 0 ? SmsFilterAction.ALLOW : SmsFilterAction.BLOCK);
+            // Phone number rules only make sense for the sender
+            int fields = mode == SmsFilterMode.NUMBER ? 0 : random.nextInt(10);
+            if (fields < 4 || fields == 9) {
+                setPattern(random, data.getSenderPattern(), mode, senderPattern(random, mode));
+            }
+            if (fields >= 4) {
+                setPattern(random, data.getBodyPattern(), mode, bodyPattern(random, mode));
+            }
+            filters.add(data);
+        }
+        return filters;
+    }
+
+    public static List<SmsFilter> compile(List<SmsFilterData> dataList) {
+        List<SmsFilter> filters = new ArrayList<>(dataList.size());
+        for (SmsFilterData data : dataList) {
+            filters.add(new SmsFilter(data));
+        }
+        return filters;
+    }
+
+    private static void setPattern(Random random, SmsFilterPatternData data, SmsFilterMode mode, String pattern) {
+        data.setMode(mode);
+        data.setPattern(pattern);
+        data.setCaseSensitive(random.nextInt(5) == 0);
+    }
+
+    private static String senderPattern(Random random, SmsFilterMode mode) {
+        String sender = SmsCorpus.randomSender(random);
+        switch (mode) {
+        case CONTAINS:
+            return sender.substring(random.nextInt(Math.max(1, sender.length() - 4)));
+        case PREFIX:
+            return sender.substring(0, Math.min(sender.length(), 3 + random.nextInt(6)));
+        case SUFFIX:
+            return sender.substring(Math.max(0, sender.length() - 4 - random.nextInt(4)));
+        case EQUALS:
+            return sender;
+        case NUMBER:
+            return formatNumber(random, sender);
+        case WILDCARD:
+            if (random.nextBoolean()) {
+                return sender.substring(0, Math.min(sender.length(), 4)) + "*";
+            } else {
+                return "*" + sender.substring(Math.max(0, sender.length() - 4));
+            }
+        case REGEX:
+            switch (random.nextInt(3)) {
+            case 0:
+                return "^\\+1555" + SmsCorpus.randomDigits(random, 3) + "\\d{4}$";
+            case 1:
+                return "^106" + SmsCorpus.randomDigits(random, 2) + "\\d*";
+            default:
+                return "^1[3-8]\\d" + SmsCorpus.randomDigits(random, 4);
+            }
+        default:
+            throw new AssertionError("Invalid mode: " + mode);
+        }
+    }
+
+    private static String bodyPattern(Random random, SmsFilterMode mode) {
+        switch (mode) {
+        case CONTAINS:
+            return randomPhrase(random, 1 + random.nextInt(2));
+        case PREFIX:
+        case SUFFIX:
+            return randomPhrase(random, 1 + random.nextInt(3));
+        case EQUALS:
+            return randomPhrase(random, 3 + random.nextInt(6));
+        case WILDCARD:
+            return "*" + randomWord(random) + "*" + randomWord(random) + "*";
+        case REGEX:
+            switch (random.nextInt(5)) {
+            case 0:
+                return randomWord(random) + "\\s+\\d{4,6}";
+            case 1:
+                return "(?i)" + randomWord(random) + ".*" + randomWord(random);
+            case 2:
+                return "\\b(" + randomWord(random) + "|" + randomWord(random) + ")\\b";
+            case 3:
+                return "\\$\\d+.*" + randomWord(random);
+            default:
+                return "^" + randomWord(random) + "\\W";
+            }
+        default:
+            throw new AssertionError("Invalid mode: " + mode);
+        }
+    }
+
+    private static String formatNumber(Random random, String sender) {
+        // Write the number the way a user might have typed it,
+        // with or without the country code and separators
+        while (PhoneNumberKey.parse(sender) == null) {
+            sender = SmsCorpus.randomSender(random);
+        }
+        if (sender.startsWith("+1") && random.nextBoolean()) {
+            sender = sender.substring(2);
+        }
+        if (sender.length() >= 10 && random.nextBoolean()) {
+            int end = sender.length();
+            return sender.substring(0, end - 7) + " " + sender.substring(end - 7, end - 4) + "-" + sender.substring(end - 4);
+        }
+        return sender;
+    }
+
+    private static String randomPhrase(Random random, int words) {
+        // Phrases are either all Latin or all CJK, like real text
+        boolean cjk = random.nextInt(3) == 0;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; ++i) {
+            if (cjk) {
+                sb.append(SmsCorpus.CJK_WORDS[random.nextInt(SmsCorpus.CJK_WORDS.length)]);
+            } else {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                sb.append(SmsCorpus.LATIN_WORDS[random.nextInt(SmsCorpus.LATIN_WORDS.length)]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String randomWord(Random random) {
+        return randomPhrase(random, 1);
+    }
+}
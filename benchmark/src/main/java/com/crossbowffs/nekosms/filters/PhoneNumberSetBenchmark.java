@@ -0,0 +1,65 @@
+package com.crossbowffs.nekosms.filters;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Measures looking up a sender in a bulk number list. Half of the
+// senders are in the list, written with or without a country code,
+// and the other half are random numbers that (almost always) aren't.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhoneNumberSetBenchmark {
+    // Must be a power of two, see nextIndex()
+    private static final int SENDER_COUNT = 1024;
+
+    @Param({"1000", "10000", "100000", "500000"})
+    public int numberCount;
+
+    private PhoneNumberSet mNumbers;
+    private PhoneNumberKey[] mSenders;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(0x4e656b6fL);
+        String[] numbers = new String[numberCount];
+        long[] keys = new long[numberCount];
+        for (int i = 0; i < numberCount; ++i) {
+            numbers[i] = "+1" + (200 + random.nextInt(800)) + SmsCorpus.randomDigits(random, 7);
+            keys[i] = PhoneNumberSet.encode(PhoneNumberKey.parse(numbers[i]));
+        }
+        mNumbers = PhoneNumberSet.fromKeys(keys, numberCount);
+
+        mSenders = new PhoneNumberKey[SENDER_COUNT];
+        for (int i = 0; i < SENDER_COUNT; ++i) {
+            String sender;
+            if (random.nextBoolean()) {
+                sender = numbers[random.nextInt(numberCount)];
+                if (random.nextBoolean()) {
+                    sender = sender.substring(2);
+                }
+            } else {
+                sender = SmsCorpus.randomSender(random);
+            }
+            mSenders[i] = PhoneNumberKey.parse(sender);
+            if (mSenders[i] == null) {
+                mSenders[i] = PhoneNumberKey.parse(numbers[0]);
+            }
+        }
+    }
+
+    private int nextIndex() {
+        return mIndex++ & (SENDER_COUNT - 1);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return mNumbers.contains(mSenders[nextIndex()]);
+    }
+}
@@ -0,0 +1,104 @@
+package com.crossbowffs.nekosms.filters;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Compares checking regex rules as one merged alternation against
+// checking them one at a time, which is what the MERGE_REGEX_PATTERNS
+// switch in SmsFilterLoader decides. java.util.regex backtracks, so
+// the alternation still tries every member at every position; this
+// measures whether sharing one Matcher and one pass over the text is
+// worth it. Patterns have no required literal, since those rules are
+// matched through their literal instead of the union.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegexUnionBenchmark {
+    // Must be a power of two, see nextIndex()
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"1", "4", "16", "64", "256"})
+    public int patternCount;
+
+    @Param({"GSM7", "UCS2", "CONCATENATED"})
+    public SmsCorpus.Encoding encoding;
+
+    private Pattern[] mPatterns;
+    private RegexUnionMatcher mUnion;
+    private String[] mBodies;
+    private final BitSet mHits = new BitSet();
+    private final BitSet mPending = new BitSet();
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Fixed seed so that runs are comparable
+        Random random = new Random(0x4e656b6fL);
+        mPatterns = new Pattern[patternCount];
+        RegexUnionMatcher.Builder builder = new RegexUnionMatcher.Builder(0);
+        for (int i = 0; i < patternCount; ++i) {
+            String regex = randomRegex(random);
+            mPatterns[i] = Pattern.compile(regex);
+            builder.add(regex, 0, i);
+        }
+        mUnion = builder.build();
+        mBodies = new String[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; ++i) {
+            mBodies[i] = SmsCorpus.randomBody(random, encoding);
+        }
+    }
+
+    private static String randomRegex(Random random) {
+        // Only character classes and quantifiers, no groups, so
+        // there is nothing for the literal extractor to pick up
+        switch (random.nextInt(4)) {
+        case 0:
+            return "[A-Z]{" + (2 + random.nextInt(3)) + "}\\d{" + (5 + random.nextInt(4)) + "}";
+        case 1:
+            return "\\d{" + (3 + random.nextInt(2)) + "}[-.]\\d{4}[-.]\\d{" + (3 + random.nextInt(3)) + "}";
+        case 2:
+            return "[$€£]\\d{" + (3 + random.nextInt(4)) + ",}[kKmM]";
+        default:
+            return "\\b[A-Za-z]{" + (12 + random.nextInt(6)) + "}\\b";
+        }
+    }
+
+    private int nextIndex() {
+        return mIndex++ & (MESSAGE_COUNT - 1);
+    }
+
+    @Benchmark
+    public boolean merged() {
+        // Same as SmsFilterSet: members that the union could not
+        // rule out are checked one at a time afterwards.
+        String body = mBodies[nextIndex()];
+        mHits.clear();
+        mPending.clear();
+        mUnion.match(body, mHits, mPending);
+        for (int i = mPending.nextSetBit(0); i >= 0; i = mPending.nextSetBit(i + 1)) {
+            if (mPatterns[i].matcher(body).find()) {
+                mHits.set(i);
+            }
+        }
+        return !mHits.isEmpty();
+    }
+
+    @Benchmark
+    public boolean separate() {
+        String body = mBodies[nextIndex()];
+        mHits.clear();
+        for (int i = 0; i < mPatterns.length; ++i) {
+            if (mPatterns[i].matcher(body).find()) {
+                mHits.set(i);
+            }
+        }
+        return !mHits.isEmpty();
+    }
+}
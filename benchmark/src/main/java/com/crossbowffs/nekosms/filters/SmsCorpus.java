@@ -0,0 +1,138 @@
+package com.crossbowffs.nekosms.filters;
+
+import java.util.Random;
+
+/* package */ final class SmsCorpus {
+    public enum Encoding {
+        // Plain English text, up to a single 160 character message
+        GSM7,
+        // Chinese text (plus the odd emoji), up to a single
+        // 70 character message
+        UCS2,
+        // Multipart messages of up to 10 segments, which the
+        // phone concatenates before they reach the filters
+        CONCATENATED,
+    }
+
+    /* package */ static final String[] LATIN_WORDS = {
+        "your", "code", "is", "verification", "account", "bank", "card",
+        "payment", "due", "reply", "stop", "to", "unsubscribe", "win",
+        "winner", "prize", "claim", "now", "free", "offer", "limited",
+        "time", "only", "click", "link", "below", "delivery", "package",
+        "parcel", "tracking", "order", "shipped", "arriving", "today",
+        "tomorrow", "meeting", "dinner", "tonight", "call", "me", "back",
+        "please", "thanks", "see", "you", "soon", "loan", "approved",
+        "credit", "score", "urgent", "security", "alert", "login",
+        "password", "reset", "balance", "transfer", "received", "OTP",
+        "PIN", "Casino", "Bonus", "VIP", "discount", "sale", "coupon",
+    };
+
+    /* package */ static final String[] CJK_WORDS = {
+        "您的", "验证码", "是", "账户", "银行", "信用卡", "还款", "到期",
+        "回复", "退订", "中奖", "领取", "免费", "优惠", "限时", "点击",
+        "链接", "快递", "包裹", "订单", "已发货", "今天", "明天", "会议",
+        "晚饭", "电话", "谢谢", "贷款", "额度", "安全", "登录", "密码",
+        "余额", "转账", "到账", "积分", "兑换", "红包", "活动", "恭喜",
+    };
+
+    private static final String[] EMOJI = {
+        "😀", "🎁", "💰", "📦",
+    };
+
+    private static final String[] ALPHA_SENDERS = {
+        "BANK", "AMAZON", "DHL", "VERIFY", "PROMO", "INFO", "Google",
+    };
+
+    private SmsCorpus() { }
+
+    public static String randomSender(Random random) {
+        switch (random.nextInt(4)) {
+        case 0:
+            // E.164 number
+            return "+1555" + randomDigits(random, 7);
+        case 1:
+            // National number
+            return "1" + (30 + random.nextInt(60)) + randomDigits(random, 8);
+        case 2:
+            // Short code
+            return "106" + randomDigits(random, 2 + random.nextInt(6));
+        default:
+            return ALPHA_SENDERS[random.nextInt(ALPHA_SENDERS.length)];
+        }
+    }
+
+    public static String randomBody(Random random, Encoding encoding) {
+        switch (encoding) {
+        case GSM7:
+            return randomLatinText(random, 20 + random.nextInt(141));
+        case UCS2:
+            return randomCjkText(random, 10 + random.nextInt(61));
+        case CONCATENATED:
+            int segments = 2 + random.nextInt(9);
+            if (random.nextBoolean()) {
+                return randomLatinText(random, segments * 153);
+            } else {
+                return randomCjkText(random, segments * 67);
+            }
+        default:
+            throw new AssertionError("Invalid encoding: " + encoding);
+        }
+    }
+
+    public static String randomDigits(Random random, int count) {
+        char[] digits = new char[count];
+        for (int i = 0; i < count; ++i) {
+            digits[i] = (char)('0' + random.nextInt(10));
+        }
+        return new String(digits);
+    }
+
+    private static String randomLatinText(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder(maxLength);
+        while (true) {
+            String word;
+            int kind = random.nextInt(12);
+            if (kind == 0) {
+                word = randomDigits(random, 4 + random.nextInt(3));
+            } else if (kind == 1) {
+                word = "$" + (1 + random.nextInt(5000));
+            } else {
+                word = LATIN_WORDS[random.nextInt(LATIN_WORDS.length)];
+            }
+            int extra = (sb.length() == 0) ? 0 : 1;
+            if (sb.length() + extra + word.length() > maxLength) {
+                break;
+            }
+            if (extra != 0) {
+                sb.append(random.nextInt(8) == 0 ? ". " : " ");
+                if (sb.length() + word.length() > maxLength) {
+                    break;
+                }
+            }
+            sb.append(word);
+        }
+        return sb.toString();
+    }
+
+    private static String randomCjkText(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder(maxLength);
+        while (true) {
+            String word;
+            int kind = random.nextInt(16);
+            if (kind == 0) {
+                word = randomDigits(random, 6);
+            } else if (kind == 1) {
+                word = EMOJI[random.nextInt(EMOJI.length)];
+            } else if (kind == 2) {
+                word = "，";
+            } else {
+                word = CJK_WORDS[random.nextInt(CJK_WORDS.length)];
+            }
+            if (sb.length() + word.length() > maxLength) {
+                break;
+            }
+            sb.append(word);
+        }
+        return sb.toString();
+    }
+}
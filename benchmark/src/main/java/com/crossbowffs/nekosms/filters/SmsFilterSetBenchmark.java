@@ -0,0 +1,65 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterAction;
+import com.crossbowffs.nekosms.data.SmsFilterMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Measures the cost of filtering a single message. Throughput
+// gives the average, SampleTime gives the latency percentiles
+// (p99 is the one that matters for holding up the phone process).
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmsFilterSetBenchmark {
+    // Must be a power of two, see shouldBlockMessage()
+    private static final int MESSAGE_COUNT = 1024;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int ruleCount;
+
+    @Param({"CONTAINS", "PREFIX", "SUFFIX", "EQUALS", "NUMBER", "WILDCARD", "REGEX"})
+    public SmsFilterMode mode;
+
+    @Param({"GSM7", "UCS2", "CONCATENATED"})
+    public SmsCorpus.Encoding encoding;
+
+    private SmsFilterSet mFilterSet;
+    private String[] mSenders;
+    private String[] mBodies;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Fixed seed so that runs are comparable
+        Random random = new Random(0x4e656b6fL);
+        mFilterSet = new SmsFilterSet(FilterRuleGenerator.compile(
+            FilterRuleGenerator.generate(random, mode, ruleCount)), false);
+        mSenders = new String[MESSAGE_COUNT];
+        mBodies = new String[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; ++i) {
+            mSenders[i] = SmsCorpus.randomSender(random);
+            mBodies[i] = SmsCorpus.randomBody(random, encoding);
+        }
+    }
+
+    @Benchmark
+    public boolean shouldBlockMessage() {
+        // Same as SmsFilterLoader#shouldBlockMessage, minus the
+        // logging and stats flushing, which need Android. The hook
+        // creates a new context for each message, so we do too.
+        int index = mIndex++ & (MESSAGE_COUNT - 1);
+        SmsMatchContext context = new SmsMatchContext(mSenders[index], mBodies[index]);
+        SmsFilter filter = mFilterSet.match(context);
+        if (filter == null) {
+            return false;
+        }
+        filter.getStats().addHit(System.currentTimeMillis());
+        return filter.getAction() == SmsFilterAction.BLOCK;
+    }
+}
@@ -0,0 +1,38 @@
+package com.crossbowffs.nekosms.filters;
+
+import com.crossbowffs.nekosms.data.SmsFilterData;
+import com.crossbowffs.nekosms.data.SmsFilterMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Measures how long it takes to compile the rules after they
+// have been read from the database, which is what the loader
+// does on every reload.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmsFilterSetLoadBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int ruleCount;
+
+    @Param({"CONTAINS", "PREFIX", "SUFFIX", "EQUALS", "NUMBER", "WILDCARD", "REGEX"})
+    public SmsFilterMode mode;
+
+    private List<SmsFilterData> mFilterData;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mFilterData = FilterRuleGenerator.generate(new Random(0x4e656b6fL), mode, ruleCount);
+    }
+
+    @Benchmark
+    public SmsFilterSet loadFilters() {
+        return new SmsFilterSet(FilterRuleGenerator.compile(mFilterData), false);
+    }
+}